@@ -0,0 +1,29 @@
+/**
+ * A sink that keeps everything written to it in memory so that it can be
+ * inspected later, for example by a headless replay.
+ */
+public class CaptureSink implements OutputSink {
+    /** everything written so far */
+    private StringBuilder text = new StringBuilder();
+
+    @Override
+    public void write(CharSequence text) {
+        this.text.append(text);
+    }
+
+    /**
+     * Returns everything written to the sink since it was created or last cleared.
+     * 
+     * @return everything written to the sink
+     */
+    public String getText() {
+        return text.toString();
+    }
+
+    /**
+     * Discards everything written to the sink so far.
+     */
+    public void clear() {
+        text.setLength(0);
+    }
+}
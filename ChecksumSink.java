@@ -0,0 +1,39 @@
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+
+/**
+ * A sink that keeps a CRC-32 checksum of the UTF-8 encoding of everything
+ * written to it instead of the text itself. Two games that print exactly the
+ * same thing have the same checksum.
+ */
+public class ChecksumSink implements OutputSink {
+    /** the checksum of everything written so far */
+    private CRC32 crc = new CRC32();
+
+    /** the number of characters written so far */
+    private long length;
+
+    @Override
+    public void write(CharSequence text) {
+        crc.update(text.toString().getBytes(StandardCharsets.UTF_8));
+        length += text.length();
+    }
+
+    /**
+     * Returns the checksum of everything written so far.
+     * 
+     * @return the checksum of everything written so far
+     */
+    public long getChecksum() {
+        return crc.getValue();
+    }
+
+    /**
+     * Returns the number of characters written so far.
+     * 
+     * @return the number of characters written so far
+     */
+    public long getLength() {
+        return length;
+    }
+}
@@ -1,5 +1,43 @@
 
 public interface CommandHandler {
-	public boolean execute(String str); 
+	public boolean execute(String str);
 	public void printHelp();
+
+	/**
+	 * Returns the routes this handler responds to, or null if it should be offered
+	 * every command. A route is either an exact command (such as "open cookbook")
+	 * or a single verb (such as "look"), in which case every command starting with
+	 * that verb is routed to this handler. The routes of a handler must not change
+	 * while it is registered with an EscapeApp.
+	 *
+	 * @return the routes this handler responds to, or null if it should be offered
+	 *         every command
+	 */
+	public default String[] getRoutes() {
+		return null;
+	}
+
+	/**
+	 * Returns the headings this handler is listed under in the help, or null if
+	 * the help should call printHelp() instead. Handlers that many objects share,
+	 * like containers, list their name (see getHelpName()) under a shared heading
+	 * such as "You can open or close:" rather than each printing their own lines.
+	 * Like the routes, the headings and name must not change while the handler is
+	 * registered with an EscapeApp.
+	 *
+	 * @return the headings this handler is listed under, or null
+	 */
+	public default String[] getHelpGroups() {
+		return null;
+	}
+
+	/**
+	 * Returns the name listed under this handler's help headings (see
+	 * getHelpGroups()).
+	 *
+	 * @return the name listed under this handler's help headings
+	 */
+	public default String getHelpName() {
+		return toString();
+	}
 }
@@ -0,0 +1,149 @@
+/**
+ * Splits a command into white space separated tokens without copying it. The
+ * tokenizer only tracks where the current token starts and ends in the
+ * original command, so it can be reset and reused for every command. Tokens
+ * are only turned into Strings when token() or rest() is called.
+ *
+ * An EscapeApp shares one tokenizer between all of its built-in handlers (see
+ * EscapeApp.getTokenizer()). A handler using the shared tokenizer must finish
+ * reading the command's tokens before it calls anything that might execute
+ * another command.
+ */
+public class CommandTokenizer {
+    /** the command being tokenized */
+    private String source;
+
+    /** the index where the current token starts */
+    private int start;
+
+    /** the index just past the end of the current token */
+    private int end;
+
+    /**
+     * Creates a tokenizer with an empty command.
+     */
+    public CommandTokenizer() {
+        reset("");
+    }
+
+    /**
+     * Starts tokenizing the given command. The first call to next() moves to the
+     * command's first token.
+     *
+     * @param command the command to tokenize
+     * @return this tokenizer
+     */
+    public CommandTokenizer reset(String command) {
+        source = command;
+        start = 0;
+        end = 0;
+        return this;
+    }
+
+    /**
+     * Returns the command being tokenized.
+     *
+     * @return the command being tokenized
+     */
+    public String getSource() {
+        return source;
+    }
+
+    /**
+     * Moves to the next token.
+     *
+     * @return true if there was another token and false otherwise
+     */
+    public boolean next() {
+        int i = skipWhiteSpace(end);
+        if (i == source.length()) {
+            start = end = i;
+            return false;
+        }
+        start = i;
+        while (i < source.length() && !Character.isWhitespace(source.charAt(i))) {
+            i++;
+        }
+        end = i;
+        return true;
+    }
+
+    /**
+     * Returns true if there is another token after the current one.
+     *
+     * @return true if there is another token after the current one
+     */
+    public boolean hasNext() {
+        return skipWhiteSpace(end) < source.length();
+    }
+
+    /**
+     * Returns true if the current token is the given word.
+     *
+     * @param word the word to compare with
+     * @return true if the current token is the given word
+     */
+    public boolean tokenEquals(String word) {
+        return end - start == word.length() && source.startsWith(word, start);
+    }
+
+    /**
+     * Returns true if the current token is the given word, ignoring case.
+     *
+     * @param word the word to compare with
+     * @return true if the current token is the given word, ignoring case
+     */
+    public boolean tokenEqualsIgnoreCase(String word) {
+        return end - start == word.length() && source.regionMatches(true, start, word, 0, word.length());
+    }
+
+    /**
+     * Returns true if the current token is the whole command, with no white space
+     * around it.
+     *
+     * @return true if the current token is the whole command
+     */
+    public boolean tokenIsWholeCommand() {
+        return start == 0 && end == source.length();
+    }
+
+    /**
+     * Returns the current token.
+     *
+     * @return the current token
+     */
+    public String token() {
+        return source.substring(start, end);
+    }
+
+    /**
+     * Returns everything after the current token with the surrounding white space
+     * removed, and moves past the end of the command.
+     *
+     * @return everything after the current token, trimmed
+     */
+    public String rest() {
+        int from = skipWhiteSpace(end);
+        int to = source.length();
+        while (to > from && Character.isWhitespace(source.charAt(to - 1))) {
+            to--;
+        }
+        start = end = source.length();
+        return source.substring(from, to);
+    }
+
+    /**
+     * Returns the index of the first character at or after i that is not white
+     * space.
+     *
+     * @param i the index to start from
+     * @return the index of the first character at or after i that is not white
+     *         space, or the length of the command if there is none
+     */
+    private int skipWhiteSpace(int i) {
+        while (i < source.length() && Character.isWhitespace(source.charAt(i))) {
+            i++;
+        }
+        return i;
+    }
+}
@@ -1,10 +1,25 @@
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 public class Container extends Item implements CommandHandler {
+    /**
+     * the help headings containers are listed under. Subclasses that print their
+     * own help should return null from getHelpGroups().
+     */
+    private static final String[] HELP_GROUPS = { "You can open or close:" };
+
     /** the contents of the container */
     private List<Item> contents;
 
+    /** the read-only view of the contents handed out by getContents */
+    private List<Item> contentsView;
+
+    /** the contents of the container indexed by name */
+    private Map<String, Item> contentsByName;
+
     /** Whether or not the container is open */
     private boolean isOpen;
 
@@ -31,8 +46,23 @@ public class Container extends Item implements CommandHandler {
      * @param isLocked    whether or not the container is locked
      */
     public Container(String name, String description, boolean isOpen, boolean isLocked) {
+        this(name, TextStore.shared().intern(description), isOpen, isLocked);
+    }
+
+    /**
+     * Creates a container whose description is already in TextStore.shared() (see
+     * Item(String, int)).
+     * 
+     * @param name        the name of the container
+     * @param description the id of the description in TextStore.shared()
+     * @param isOpen      whether or not the container is open
+     * @param isLocked    whether or not the container is locked
+     */
+    public Container(String name, int description, boolean isOpen, boolean isLocked) {
         super(name, description);
         contents = new ArrayList<>();
+        contentsByName = new HashMap<>();
+        contentsView = Collections.unmodifiableList(contents);
         this.isOpen = isOpen;
         this.isLocked = isLocked;
     }
@@ -45,12 +75,16 @@ public class Container extends Item implements CommandHandler {
      *                                  the container
      */
     public void add(Item item) {
-        for (Item i : contents) {
-            if (i.getName().equals(item.getName())) {
-                throw new IllegalArgumentException(getName() + " already contains a " + item.getName());
-            }
+        if (contentsByName.containsKey(item.getName())) {
+            throw new IllegalArgumentException(getName() + " already contains a " + item.getName());
         }
         contents.add(item);
+        contentsByName.put(item.getName(), item);
+        item.setContainer(this);
+        Room room = getEnclosingRoom();
+        if (room != null) {
+            room.indexNested(item);
+        }
     }
 
     /**
@@ -59,18 +93,25 @@ public class Container extends Item implements CommandHandler {
      * @param item the item to remove
      */
     public void remove(Item item) {
-        contents.remove(item);
+        if (contents.remove(item)) {
+            contentsByName.remove(item.getName());
+            item.setContainer(null);
+            Room room = getEnclosingRoom();
+            if (room != null && item.getRoom() != room) {
+                room.unindexNested(item);
+            }
+        }
     }
 
     /**
-     * returns list containing the contents of the container. Modifying this list
-     * has no effect on the underlying list of items contained in the container
-     * because it is a different list.
+     * returns a read-only view of the contents of the container. The view always
+     * shows what is in the container right now and is not a copy, so use add and
+     * remove to change the contents. See Room.getItems() for more about views.
      * 
-     * @return returns list containing the contents of the container.
+     * @return returns a read-only view of the contents of the container.
      */
     public List<Item> getContents() {
-        return new ArrayList<>(contents);
+        return contentsView;
     }
 
     /**
@@ -82,11 +123,7 @@ public class Container extends Item implements CommandHandler {
      *         no such item exists.
      */
     public Item getItem(String itemName) {
-        for (Item item : contents) {
-            if (item.getName().equals(itemName))
-                return item;
-        }
-        return null;
+        return contentsByName.get(itemName);
     }
 
     /**
@@ -94,19 +131,19 @@ public class Container extends Item implements CommandHandler {
      */
     public void printContents() {
         for (Item item : contents) {
-            System.out.println("  " + item);
+            getOutput().println("  " + item);
         }
     }
 
     /**
      * Adds the contents of the container to the room this container is in. This is
-     * a helper method called by the open() method.
+     * a helper method called by the open() method. When the container itself is
+     * added to or removed from a room while it is open, the room adds or removes
+     * its contents along with it (see Room.addAll and Room.removeAll).
      */
     private void addContentsToRoom() {
         if (getRoom() != null) {
-            for (Item item : contents) {
-                getRoom().add(item);
-            }
+            getRoom().addAll(contents);
         }
     }
 
@@ -116,9 +153,21 @@ public class Container extends Item implements CommandHandler {
      */
     private void removeContentsFromRoom() {
         if (getRoom() != null) {
-            for (Item item : contents) {
-                getRoom().remove(item);
-            }
+            getRoom().removeAll(contents);
+        }
+    }
+
+    /**
+     * Tells the listeners of the room this container is in about a change to the
+     * container. This is a helper method called by open(), close(), lock() and
+     * unlock().
+     * 
+     * @param event what changed
+     */
+    private void publishToRoom(RoomEvent event) {
+        Room room = getEnclosingRoom();
+        if (room != null) {
+            room.publish(event, this);
         }
     }
 
@@ -139,8 +188,11 @@ public class Container extends Item implements CommandHandler {
      */
     public boolean open() {
         if (!isOpen && !isLocked) {
-            isOpen = true;
+            // only open once the contents are in the room, so a container whose
+            // contents cannot be added stays closed
             addContentsToRoom();
+            isOpen = true;
+            publishToRoom(RoomEvent.CONTAINER_OPENED);
             return true;
         } else {
             return false;
@@ -156,6 +208,7 @@ public class Container extends Item implements CommandHandler {
         if (isOpen) {
             isOpen = false;
             removeContentsFromRoom();
+            publishToRoom(RoomEvent.CONTAINER_CLOSED);
             return true;
         } else {
             return false;
@@ -179,6 +232,7 @@ public class Container extends Item implements CommandHandler {
     public boolean lock() {
         if (!isOpen && !isLocked) {
             isLocked = true;
+            publishToRoom(RoomEvent.CONTAINER_LOCKED);
             return true;
         } else {
             return false;
@@ -193,6 +247,7 @@ public class Container extends Item implements CommandHandler {
     public boolean unlock() {
         if (!isOpen && isLocked) {
             isLocked = false;
+            publishToRoom(RoomEvent.CONTAINER_UNLOCKED);
             return true;
         } else {
             return false;
@@ -200,14 +255,16 @@ public class Container extends Item implements CommandHandler {
     }
 
     /**
-     * sets the room the container is in and if the container is open, this adds the
-     * contents to the room.
+     * Sets whether the container is open and locked without adding or removing any
+     * items from the room. This is only meant for restoring a snapshot (see
+     * RoomSnapshot), where the room's items are restored separately.
+     * 
+     * @param isOpen   whether or not the container is open
+     * @param isLocked whether or not the container is locked
      */
-    @Override
-    public void setRoom(Room room) {
-        super.setRoom(room);
-        if (isOpen)
-            addContentsToRoom();
+    void restoreState(boolean isOpen, boolean isLocked) {
+        this.isOpen = isOpen;
+        this.isLocked = isLocked;
     }
 
     /**
@@ -222,22 +279,22 @@ public class Container extends Item implements CommandHandler {
         if (command.equals("open " + getName())) {
             if (!isOpen) {
                 if (isLocked) {
-                    System.out.println("You try to open the " + getName() + ", but it is locked.");
+                    getOutput().println("You try to open the " + getName() + ", but it is locked.");
                 } else {
-                    System.out.println("You open the " + getName() + ". Inside, you see: ");
+                    getOutput().println("You open the " + getName() + ". Inside, you see: ");
                     printContents();
                     open();
                 }
             } else {
-                System.out.println("The " + getName() + " is already open.");
+                getOutput().println("The " + getName() + " is already open.");
             }
             return true;
         } else if (command.equals("close " + getName())) {
             if (isOpen) {
-                System.out.println("You close the " + getName());
+                getOutput().println("You close the " + getName());
                 close();
             } else {
-                System.out.println("The " + getName() + " is already closed.");
+                getOutput().println("The " + getName() + " is already closed.");
             }
             return true;
         }
@@ -246,7 +303,22 @@ public class Container extends Item implements CommandHandler {
     }
 
     public void printHelp() {
-        System.out.println("You can open or close the " + getName());
+        getOutput().println("You can open or close the " + getName());
+    }
+
+    @Override
+    public String[] getHelpGroups() {
+        return HELP_GROUPS;
+    }
+
+    @Override
+    public String getHelpName() {
+        return getName();
+    }
+
+    @Override
+    public String[] getRoutes() {
+        return new String[] { "open " + getName(), "close " + getName() };
     }
 
     public void use(){
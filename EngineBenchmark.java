@@ -0,0 +1,296 @@
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Scanner;
+
+/**
+ * Micro benchmarks for the hot paths of the game engine. Each benchmark is run
+ * for every room size, first to warm up and then measured, and reports the
+ * average time and the bytes allocated per operation (like JMH's -prof gc).
+ *
+ * Usage: java EngineBenchmark [benchmark] [size ...]
+ *
+ * where benchmark is one of dispatch, roomGetItem, containerGetItem, combine,
+ * openClose or walkthrough (all of them run if it is missing or "all"), and
+ * the sizes default to 10 100 1000 10000 100000. The walkthrough does not
+ * depend on the size and is only run once.
+ */
+public class EngineBenchmark {
+    /** the room sizes used when none are given */
+    private static final int[] DEFAULT_SIZES = { 10, 100, 1000, 10000, 100000 };
+
+    /** how long each benchmark warms up for, in nanoseconds */
+    private static final long WARMUP_NANOS = 1_000_000_000L;
+
+    /** how long each benchmark is measured for, in nanoseconds */
+    private static final long MEASURE_NANOS = 2_000_000_000L;
+
+    /** results are accumulated here so the JIT cannot discard the work */
+    private static long sink;
+
+    /** the metrics the benchmarked games record into, kept apart from real games */
+    private static final GameMetrics METRICS = new GameMetrics();
+
+    /** the leaderboard the benchmarked games record into, kept apart from real games */
+    private static final Leaderboard LEADERBOARD = new Leaderboard(Leaderboard.DEFAULT_SIZE);
+
+    /**
+     * One operation of a benchmark.
+     */
+    private interface Operation {
+        /**
+         * Performs the operation once.
+         *
+         * @param i the number of the operation
+         * @return a value that depends on the work done
+         */
+        long run(int i);
+    }
+
+    /**
+     * A room that is never escaped or failed and prints nothing, used to hold the
+     * generated items.
+     */
+    private static class BenchmarkRoom extends Room {
+        public BenchmarkRoom() {
+            super("A benchmark room.", "");
+        }
+
+        @Override
+        public void printRoomPrompt() {
+        }
+
+        @Override
+        public void onCommandAttempted(String string, boolean handled) {
+        }
+
+        @Override
+        public boolean escaped() {
+            return false;
+        }
+
+        @Override
+        public void onEscaped() {
+        }
+
+        @Override
+        public boolean failed() {
+            return false;
+        }
+
+        @Override
+        public void onFailed() {
+        }
+    }
+
+    /**
+     * A recipe that does nothing when it is combined.
+     */
+    private static class BenchmarkRecipe extends Recipe {
+        public BenchmarkRecipe(boolean orderMatters, String... ingredients) {
+            super(orderMatters, ingredients);
+        }
+
+        @Override
+        public void combineInRoom(Room r) {
+        }
+    }
+
+    public static void main(String[] args) {
+        String which = args.length > 0 ? args[0] : "all";
+        int[] sizes = DEFAULT_SIZES;
+        if (args.length > 1) {
+            sizes = new int[args.length - 1];
+            for (int i = 1; i < args.length; i++) {
+                sizes[i - 1] = Integer.parseInt(args[i]);
+            }
+        }
+        System.out.printf("%-18s %8s %14s %14s%n", "benchmark", "size", "ns/op", "bytes/op");
+        for (int size : sizes) {
+            if (which.equals("all") || which.equals("dispatch")) {
+                benchmarkDispatch(size);
+            }
+            if (which.equals("all") || which.equals("roomGetItem")) {
+                benchmarkRoomGetItem(size);
+            }
+            if (which.equals("all") || which.equals("containerGetItem")) {
+                benchmarkContainerGetItem(size);
+            }
+            if (which.equals("all") || which.equals("combine")) {
+                benchmarkCombine(size);
+            }
+            if (which.equals("all") || which.equals("openClose")) {
+                benchmarkOpenClose(size);
+            }
+        }
+        if (which.equals("all") || which.equals("walkthrough")) {
+            benchmarkWalkthrough();
+        }
+        if (sink == 42) {
+            System.out.println();
+        }
+    }
+
+    /**
+     * Measures dispatching a command in a room with size containers.
+     */
+    private static void benchmarkDispatch(int size) {
+        Room room = new BenchmarkRoom();
+        for (int i = 0; i < size; i++) {
+            room.add(new Container("box_" + i, "a box"));
+        }
+        EscapeApp app = newApp(room);
+        String[] commands = { "open box_" + (size / 2), "close box_" + (size / 2), "use box_0", "xyzzy" };
+        measure("dispatch", size, i -> {
+            boolean handled = app.processCommand(commands[i & 3]);
+            app.getOutput().flush();
+            return handled ? 1 : 0;
+        });
+    }
+
+    /**
+     * Measures looking up items by name in a room with size items.
+     */
+    private static void benchmarkRoomGetItem(int size) {
+        Room room = new BenchmarkRoom();
+        String[] names = names("item_", size);
+        for (String name : names) {
+            room.add(new UselessItem(name, "an item"));
+        }
+        measure("roomGetItem", size, i -> room.getItem(names[(i & Integer.MAX_VALUE) % size]).hashCode());
+    }
+
+    /**
+     * Measures looking up items by name in a container with size items.
+     */
+    private static void benchmarkContainerGetItem(int size) {
+        Container container = new Container("crate", "a crate");
+        String[] names = names("item_", size);
+        for (String name : names) {
+            container.add(new UselessItem(name, "an item"));
+        }
+        measure("containerGetItem", size,
+                i -> container.getItem(names[(i & Integer.MAX_VALUE) % size]).hashCode());
+    }
+
+    /**
+     * Measures a failed combine attempt in a room with size recipes.
+     */
+    private static void benchmarkCombine(int size) {
+        Room room = new BenchmarkRoom();
+        for (int i = 0; i < size; i++) {
+            room.add(new BenchmarkRecipe(i % 2 == 0, "left_" + i, "right_" + i));
+        }
+        List<Item> items = new ArrayList<>();
+        items.add(new UselessItem("left", "an item"));
+        items.add(new UselessItem("right", "an item"));
+        newApp(room);
+        measure("combine", size, i -> {
+            room.combine(items);
+            room.getOutput().flush();
+            return i;
+        });
+    }
+
+    /**
+     * Measures opening and closing a container holding size items.
+     */
+    private static void benchmarkOpenClose(int size) {
+        Room room = new BenchmarkRoom();
+        Container crate = new Container("crate", "a crate");
+        for (String name : names("loot_", size)) {
+            crate.add(new UselessItem(name, "some loot"));
+        }
+        room.add(crate);
+        newApp(room);
+        measure("openClose", size, i -> {
+            crate.open();
+            crate.close();
+            return i;
+        });
+    }
+
+    /**
+     * Measures playing the prisoner's escape from start to finish.
+     */
+    private static void benchmarkWalkthrough() {
+        ReplayRunner runner = new ReplayRunner(WizardLabDriver::createLab, METRICS, LEADERBOARD);
+        measure("walkthrough", 1, i -> runner.replay(ReplayRunner.WIZARDS_LAB_WALKTHROUGH).getChecksum());
+    }
+
+    /**
+     * Creates an app for the room that prints nowhere and records into the
+     * benchmark's own metrics and leaderboard.
+     */
+    private static EscapeApp newApp(Room room) {
+        EscapeApp app = new EscapeApp(room, new Scanner(""), new GameOutput(OutputSink.NULL));
+        app.setMetrics(METRICS);
+        app.setLeaderboard(LEADERBOARD);
+        return app;
+    }
+
+    /**
+     * Returns size names made from the prefix and a number.
+     */
+    private static String[] names(String prefix, int size) {
+        String[] names = new String[size];
+        for (int i = 0; i < size; i++) {
+            names[i] = prefix + i;
+        }
+        return names;
+    }
+
+    /**
+     * Warms up and then measures the operation, printing the average time and
+     * allocation per operation.
+     */
+    private static void measure(String name, int size, Operation operation) {
+        run(operation, WARMUP_NANOS);
+        com.sun.management.ThreadMXBean threads = allocationCounter();
+        long allocatedBefore = threads != null ? threads.getCurrentThreadAllocatedBytes() : 0;
+        long start = System.nanoTime();
+        long ops = run(operation, MEASURE_NANOS);
+        long elapsed = System.nanoTime() - start;
+        long allocated = threads != null ? threads.getCurrentThreadAllocatedBytes() - allocatedBefore : -1;
+        System.out.printf("%-18s %8d %14.1f %14s%n", name, size, (double) elapsed / ops,
+                allocated < 0 ? "n/a" : String.format("%.1f", (double) allocated / ops));
+    }
+
+    /**
+     * Runs the operation repeatedly for at least the given time. The operations
+     * are run in batches that start small so that slow operations do not overrun
+     * the time by much.
+     *
+     * @return the number of times the operation was run
+     */
+    private static long run(Operation operation, long nanos) {
+        long deadline = System.nanoTime() + nanos;
+        long ops = 0;
+        int batch = 1;
+        do {
+            for (int i = 0; i < batch; i++) {
+                sink += operation.run((int) ops + i);
+            }
+            ops += batch;
+            if (batch < 1024) {
+                batch *= 2;
+            }
+        } while (System.nanoTime() < deadline);
+        return ops;
+    }
+
+    /**
+     * Returns the bean that reports per-thread allocation, or null if this JVM
+     * does not support it.
+     */
+    private static com.sun.management.ThreadMXBean allocationCounter() {
+        if (ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory
+                    .getThreadMXBean();
+            if (threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled()) {
+                return threads;
+            }
+        }
+        return null;
+    }
+}
@@ -1,31 +1,193 @@
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Scanner;
+import java.util.Set;
 
 public class EscapeApp implements CommandHandler {
     /** Use this field to read input from System.in */
     public static final Scanner IN = new Scanner(System.in);
 
+    /** Separates the commands on a line that holds several (see playLine) */
+    public static final char COMMAND_SEPARATOR = ';';
+
+    /** The input this game reads commands from */
+    private Scanner in;
+
+    /** The output this game prints to */
+    private GameOutput out;
+
+    /** The number of commands that one of the handlers handled */
+    private int handledCount;
+
+    /** The tokenizer shared by the built-in handlers (see getTokenizer()) */
+    private CommandTokenizer tokenizer;
+
     /**
      * A list of CommandHandler objects that will attempt to handle user input
      * commands
      */
     private List<CommandHandler> handlers;
 
+    /** The handlers in the list of handlers, compared by identity */
+    private Set<CommandHandler> registered;
+
+    /**
+     * Maps each route (an exact command or a verb) to the handlers that declared
+     * it, in the order they were added
+     */
+    private Map<String, List<CommandHandler>> routes;
+
+    /** The handlers that did not declare any routes and are offered every command */
+    private List<CommandHandler> unrouted;
+
+    /** The handlers whose printHelp() is called for help, in the order they were added */
+    private List<CommandHandler> helpPrinters;
+
+    /**
+     * The names listed under each help heading (see CommandHandler.getHelpGroups()),
+     * with the number of handlers that listed each name
+     */
+    private Map<String, Map<String, Integer>> helpGroups;
+
+    /** The help headings and their names ready to print, or null if they changed */
+    private String renderedHelp;
+
     /** A reference to the room the user is in */
     private Room room;
 
     /**
-     * Creates an EscapeApp with the given room.
+     * The handler waiting for the next line the player types, or null if the next
+     * line is a command
+     */
+    private InputHandler pendingInput;
+
+    /**
+     * The question the waiting handler asked, printed again if the game is started
+     * while it is still waiting, or null if it has none
+     */
+    private String pendingPrompt;
+
+    /** The journal every line is recorded in, or null if there is none */
+    private TurnJournal journal;
+
+    /** The metrics this game records each command into */
+    private GameMetrics metrics;
+
+    /** The leaderboard the room records escapes and failures into */
+    private Leaderboard leaderboard;
+
+    /**
+     * The verb of the last command dispatched, if a handler declared it as a route,
+     * and GameMetrics.OTHER_VERB otherwise
+     */
+    private String dispatchedVerb;
+
+    /**
+     * Creates an EscapeApp with the given room that reads from System.in and prints
+     * to System.out.
      * 
      * @param room the room the user is in.
      */
     public EscapeApp(Room room) {
+        this(room, IN, new GameOutput(OutputSink.console()));
+    }
+
+    /**
+     * Creates an EscapeApp with the given room that reads commands from the given
+     * input and prints to the given output. Each player session should have its
+     * own input and output.
+     * 
+     * @param room the room the user is in.
+     * @param in   the input to read commands from
+     * @param out  the output to print to
+     */
+    public EscapeApp(Room room, Scanner in, GameOutput out) {
+        this.in = in;
+        this.out = out;
+        tokenizer = new CommandTokenizer();
         handlers = new ArrayList<>();
+        registered = Collections.newSetFromMap(new IdentityHashMap<>());
+        routes = new HashMap<>();
+        unrouted = new ArrayList<>();
+        helpPrinters = new ArrayList<>();
+        helpGroups = new LinkedHashMap<>();
+        metrics = GameMetrics.global();
+        leaderboard = Leaderboard.global();
         this.room = room;
         room.setApp(this);
     }
 
+    /**
+     * Returns the input this game reads commands from.
+     * 
+     * @return the input this game reads commands from
+     */
+    public Scanner getInput() {
+        return in;
+    }
+
+    /**
+     * Returns the output this game prints to.
+     * 
+     * @return the output this game prints to
+     */
+    public GameOutput getOutput() {
+        return out;
+    }
+
+    /**
+     * Returns the number of commands so far that one of the handlers handled. Rooms
+     * like WizardsLab count these as turns.
+     * 
+     * @return the number of commands so far that one of the handlers handled
+     */
+    public int getHandledCount() {
+        return handledCount;
+    }
+
+    /**
+     * Returns the room the user is in.
+     * 
+     * @return the room the user is in
+     */
+    public Room getRoom() {
+        return room;
+    }
+
+    /**
+     * Moves the user to another room. Only the handlers of the room the user is in
+     * are offered commands, so the old room's handlers are removed and the new
+     * room's handlers are added. Handlers that do not belong to either room (like
+     * a World) stay registered.
+     * 
+     * @param room the room to move to
+     */
+    public void setRoom(Room room) {
+        if (room == this.room) {
+            return;
+        }
+        this.room.setApp(null);
+        this.room = room;
+        room.setApp(this);
+    }
+
+    /**
+     * Returns the tokenizer shared by the built-in handlers. Handlers reset it to
+     * the command they are executing, so it does not need to be allocated for each
+     * command.
+     * 
+     * @return the tokenizer shared by the built-in handlers
+     */
+    public CommandTokenizer getTokenizer() {
+        return tokenizer;
+    }
+
     /**
      * Adds a CommandHandler to the list of handlers. It will ignore attempts to add
      * the same handler multiple times.
@@ -33,9 +195,30 @@ public class EscapeApp implements CommandHandler {
      * @param handler the CommandHandler to add
      */
     public void addHandler(CommandHandler handler) {
-        if (!handlers.contains(handler)) {
+        if (registered.add(handler)) {
             handlers.add(handler);
+            addRoutes(handler);
+            addHelp(handler);
+        }
+    }
+
+    /**
+     * Adds each of the CommandHandlers to the list of handlers, ignoring the ones
+     * that have already been added. The new handlers are routed and added to the
+     * help as they are found, and then appended to the list of handlers in one go.
+     * 
+     * @param newHandlers the CommandHandlers to add
+     */
+    public void addHandlers(Collection<? extends CommandHandler> newHandlers) {
+        List<CommandHandler> adding = new ArrayList<>(newHandlers.size());
+        for (CommandHandler handler : newHandlers) {
+            if (registered.add(handler)) {
+                adding.add(handler);
+                addRoutes(handler);
+                addHelp(handler);
+            }
         }
+        handlers.addAll(adding);
     }
 
     /**
@@ -44,7 +227,156 @@ public class EscapeApp implements CommandHandler {
      * @param handler the CommandHandler to remove
      */
     public void removeHandler(CommandHandler handler) {
-        handlers.remove(handler);
+        if (registered.remove(handler)) {
+            handlers.remove(handler);
+            removeRoutes(handler);
+            removeHelp(handler);
+        }
+    }
+
+    /**
+     * Removes each of the CommandHandlers from the list of handlers. This goes
+     * through the list of handlers once, no matter how many are removed.
+     * 
+     * @param oldHandlers the CommandHandlers to remove
+     */
+    public void removeHandlers(Collection<? extends CommandHandler> oldHandlers) {
+        Set<CommandHandler> removing = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (CommandHandler handler : oldHandlers) {
+            if (registered.remove(handler)) {
+                removing.add(handler);
+                removeRoutes(handler);
+                removeHelp(handler);
+            }
+        }
+        if (!removing.isEmpty()) {
+            handlers.removeIf(removing::contains);
+        }
+    }
+
+    /**
+     * Lists the handler's name under each of its help headings, or adds it to the
+     * handlers whose printHelp() is called if it has none.
+     * 
+     * @param handler the handler to add
+     */
+    private void addHelp(CommandHandler handler) {
+        String[] groups = handler.getHelpGroups();
+        if (groups == null) {
+            helpPrinters.add(handler);
+        } else {
+            for (String group : groups) {
+                helpGroups.computeIfAbsent(group, g -> new LinkedHashMap<>()).merge(handler.getHelpName(), 1,
+                        Integer::sum);
+            }
+            renderedHelp = null;
+        }
+    }
+
+    /**
+     * Takes the handler's name off each of its help headings, or removes it from
+     * the handlers whose printHelp() is called if it has none.
+     * 
+     * @param handler the handler to remove
+     */
+    private void removeHelp(CommandHandler handler) {
+        String[] groups = handler.getHelpGroups();
+        if (groups == null) {
+            helpPrinters.remove(handler);
+        } else {
+            for (String group : groups) {
+                Map<String, Integer> names = helpGroups.get(group);
+                if (names != null) {
+                    names.computeIfPresent(handler.getHelpName(), (name, count) -> count == 1 ? null : count - 1);
+                }
+            }
+            renderedHelp = null;
+        }
+    }
+
+    /**
+     * Adds the handler under each of its routes, or to the unrouted handlers if it
+     * has none.
+     * 
+     * @param handler the handler to add
+     */
+    private void addRoutes(CommandHandler handler) {
+        String[] handlerRoutes = handler.getRoutes();
+        if (handlerRoutes == null) {
+            unrouted.add(handler);
+        } else {
+            for (String route : handlerRoutes) {
+                routes.computeIfAbsent(route, r -> new ArrayList<>(1)).add(handler);
+            }
+        }
+    }
+
+    /**
+     * Removes the handler from each of its routes, or from the unrouted handlers if
+     * it has none.
+     * 
+     * @param handler the handler to remove
+     */
+    private void removeRoutes(CommandHandler handler) {
+        String[] handlerRoutes = handler.getRoutes();
+        if (handlerRoutes == null) {
+            unrouted.remove(handler);
+        } else {
+            for (String route : handlerRoutes) {
+                List<CommandHandler> routed = routes.get(route);
+                if (routed != null) {
+                    routed.remove(handler);
+                    if (routed.isEmpty()) {
+                        routes.remove(route);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Offers the command to the handlers that can handle it. Handlers that declared
+     * the exact command as a route are tried first, then handlers that declared
+     * the command's verb, and finally the handlers that did not declare any routes.
+     * 
+     * @param command the command to handle
+     * @return the handler that handled the command, or null if none of them did
+     */
+    private CommandHandler dispatch(String command) {
+        CommandTokenizer tokens = tokenizer.reset(command);
+        boolean hasVerb = tokens.next();
+        List<CommandHandler> exact = routes.get(command);
+        List<CommandHandler> byVerb = hasVerb && !tokens.tokenIsWholeCommand() ? routes.get(tokens.token()) : null;
+        // only verbs that a handler declared are used as labels, so players typing
+        // nonsense cannot create new metrics
+        dispatchedVerb = exact != null || byVerb != null ? tokens.token() : GameMetrics.OTHER_VERB;
+        CommandHandler handler = offer(exact, command);
+        if (handler == null) {
+            handler = offer(byVerb, command);
+        }
+        if (handler == null) {
+            handler = offer(unrouted, command);
+        }
+        return handler;
+    }
+
+    /**
+     * Offers the command to each of the given handlers until one of them handles
+     * it.
+     * 
+     * @param candidates the handlers to try (may be null)
+     * @param command    the command to handle
+     * @return the handler that handled the command, or null if none of them did
+     */
+    private CommandHandler offer(List<CommandHandler> candidates, String command) {
+        if (candidates != null) {
+            for (CommandHandler ch : candidates) {
+                if (ch.execute(command)) {
+                    return ch;
+                }
+            }
+        }
+        return null;
     }
 
     /**
@@ -58,54 +390,257 @@ public class EscapeApp implements CommandHandler {
      * Once the user has either escaped or failed, it will call either the
      * onEscaped() or onFailed() method of the Room. These methods give the room a
      * chance to print a custom message or perform other custom behavior when the
-     * room has been escaped or failed.
+     * room has been escaped or failed. If the input runs out first, the game ends
+     * without calling either of them.
      * 
-     * Note: Each time the user enters a command, each CommandHandler in the list of
-     * handlers attempts to execute the command. If none of the handlers are able to
+     * Note: Each time the user enters a command, the CommandHandlers that declared
+     * a matching route (see CommandHandler.getRoutes()) and the CommandHandlers
+     * that declared no routes attempt to execute the command. If none of the handlers are able to
      * execute the command, then this class will attempt to execute it which will
      * either print help, or print out a message saying the command is invalid. Note
      * that while this system does allow more than one handler to execute the same
      * command, you should probably avoid such overlapping scenarios unless you have
      * a good reason, since it will be confusing to the user.
+     * 
+     * A handler that needs to ask the user something (see awaitInput) gets the
+     * next line instead, and the room prompt is not printed before it.
+     * 
+     * The game can also be played a line at a time, by calling startGame() and
+     * then playLine(line) for each line until it returns true.
      */
     public void runGame() {
+        startGame();
+        while (in.hasNextLine()) {
+            if (playLine(in.nextLine())) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Prints the intro, the room description and the first prompt. See runGame().
+     */
+    public void startGame() {
         room.printIntro();
         room.printDescription();
-        do {
-            room.printRoomPrompt();
-            System.out.print("> ");
-            String command = IN.nextLine();
-            boolean handled = false;
-            for (CommandHandler ch : handlers) {
-                if (ch.execute(command)) {
-                    handled = true;
-                    break;
+        if (pendingPrompt != null) {
+            // a game restored from a journal can start in the middle of a question
+            out.print(pendingPrompt);
+        }
+        prompt();
+    }
+
+    /**
+     * Plays one line the user typed (see processLine). If that ends the game, the
+     * room's onEscaped() or onFailed() method is called; otherwise the prompt for
+     * the next line is printed. See runGame().
+     * 
+     * A line can hold several commands separated by COMMAND_SEPARATOR, like
+     * "unlock purse; 0410; open purse". They are run one after another as if they
+     * had been typed on separate lines, so each one still takes its own turn (and
+     * an answer to a question, like the password above, still takes none), but the
+     * prompt is only printed and the output only flushed once, after the last one.
+     * If the game ends part way through, the rest of the commands are not run.
+     * 
+     * @param line the line the user typed
+     * @return true if the game is over, and false otherwise
+     */
+    public boolean playLine(String line) {
+        if (line.indexOf(COMMAND_SEPARATOR) < 0) {
+            processLine(line);
+        } else {
+            int start = 0;
+            while (start <= line.length() && !room.escaped() && !room.failed()) {
+                int end = line.indexOf(COMMAND_SEPARATOR, start);
+                if (end < 0) {
+                    end = line.length();
                 }
+                String command = line.substring(start, end).trim();
+                if (!command.isEmpty()) {
+                    processLine(command);
+                }
+                start = end + 1;
             }
-            if (!handled) {
-                execute(command);
-            }
-            room.onCommandAttempted(command, handled);
-        } while (!room.escaped() && !room.failed());
-        if (room.escaped())
+        }
+        if (room.escaped()) {
             room.onEscaped();
-        else
+        } else if (room.failed()) {
             room.onFailed();
+        } else {
+            prompt();
+            return false;
+        }
+        out.flush();
+        return true;
+    }
+
+    /**
+     * Prints the room prompt, unless a handler is waiting for input, and flushes
+     * the output.
+     */
+    private void prompt() {
+        if (pendingInput == null) {
+            room.printRoomPrompt();
+            out.print("> ");
+        }
+        out.flush();
+    }
+
+    /**
+     * Runs a line the user typed. If a handler is waiting for input (see
+     * awaitInput), the line is given to it and does not use up a turn. Otherwise the
+     * line is run as a command (see processCommand). If the game has a journal,
+     * the line is recorded in it.
+     * 
+     * @param line the line the user typed
+     * @return true if the line was given to a waiting handler or one of the
+     *         handlers handled it as a command, and false otherwise
+     */
+    public boolean processLine(String line) {
+        boolean handled;
+        if (pendingInput != null) {
+            InputHandler handler = pendingInput;
+            pendingInput = null;
+            pendingPrompt = null;
+            handler.handleInput(line);
+            handled = true;
+        } else {
+            handled = processCommand(line);
+        }
+        if (journal != null) {
+            journal.recordTurn(line, handled);
+        }
+        return handled;
+    }
+
+    /**
+     * Sets the journal every line is recorded in (see TurnJournal.attach).
+     * 
+     * @param journal the journal, or null to stop recording
+     */
+    public void setJournal(TurnJournal journal) {
+        this.journal = journal;
+    }
+
+    /**
+     * Makes the next line the user types go to the given handler instead of being
+     * run as a command. Handlers call this instead of reading the input
+     * themselves, so that a session never waits for its user inside a handler. The
+     * handler should print its own prompt.
+     * 
+     * @param handler the handler to give the next line to
+     */
+    public void awaitInput(InputHandler handler) {
+        pendingInput = handler;
+        pendingPrompt = null;
+    }
+
+    /**
+     * Prints the question and makes the next line the user types go to the given
+     * handler (see awaitInput(handler)). The question is remembered, so that if
+     * the game is started again while the handler is still waiting, like a game
+     * restored from a journal, startGame() asks it again.
+     * 
+     * @param handler the handler to give the next line to
+     * @param prompt  the question to print, such as "password: "
+     */
+    public void awaitInput(InputHandler handler, String prompt) {
+        out.print(prompt);
+        pendingInput = handler;
+        pendingPrompt = prompt;
+    }
+
+    /**
+     * Returns whether a handler is waiting for the next line the user types.
+     * 
+     * @return true if the next line goes to a handler and false if it is a command
+     */
+    public boolean isAwaitingInput() {
+        return pendingInput != null;
+    }
+
+    /**
+     * Runs a single command as one turn of the game: the command is dispatched to
+     * the handlers (or executed by this class if none of them handle it) and then
+     * the room is told about the attempt. This does not print the prompt or check
+     * whether the room has been escaped or failed. How long the command took and
+     * which handler handled it are recorded in the game's metrics.
+     * 
+     * @param command the command to run
+     * @return true if one of the handlers handled the command and false otherwise
+     */
+    public boolean processCommand(String command) {
+        long start = System.nanoTime();
+        // the turn belongs to the room the command was typed in, even if the
+        // command moves the user to another room
+        Room current = room;
+        CommandHandler handler = dispatch(command);
+        String verb = dispatchedVerb;
+        boolean handled = handler != null;
+        if (!handled) {
+            execute(command);
+        }
+        if (handled) {
+            handledCount++;
+        }
+        current.onCommandAttempted(command, handled);
+        metrics.recordCommand(verb, handler, System.nanoTime() - start);
+        return handled;
+    }
+
+    /**
+     * Returns the metrics this game records into.
+     * 
+     * @return the metrics this game records into
+     */
+    public GameMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Sets the metrics this game records into. Games that are not played by a
+     * person, such as the ones the RoomSolver plays, should use their own metrics so
+     * they do not skew the global ones.
+     * 
+     * @param metrics the metrics to record into
+     */
+    public void setMetrics(GameMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Returns the leaderboard the room records escapes and failures into.
+     * 
+     * @return the leaderboard of this game
+     */
+    public Leaderboard getLeaderboard() {
+        return leaderboard;
+    }
+
+    /**
+     * Sets the leaderboard the room records escapes and failures into. Like
+     * metrics, games that are not played by a person should use their own.
+     * 
+     * @param leaderboard the leaderboard to record into
+     */
+    public void setLeaderboard(Leaderboard leaderboard) {
+        this.leaderboard = leaderboard;
     }
 
     @Override
     public boolean execute(String str) {
-        int i = str.indexOf(' ');
-        String word = str.substring(0, i);
+        CommandTokenizer tokens = tokenizer.reset(str);
+        tokens.next();
         if (str.equalsIgnoreCase("help")) {
-            System.out.println("The following commands are avaliable");
+            out.println("The following commands are avaliable");
             printHelp();
-        } else if (word.equalsIgnoreCase("say")) {
-            System.out.println("You made a twenty_one_paper");
-        } else if (word.equalsIgnoreCase("order")){
+        } else if (tokens.tokenEqualsIgnoreCase("say")) {
+            out.println("You made a twenty_one_paper");
+        } else if (tokens.tokenEqualsIgnoreCase("order")){
             
         } else {
-            System.out.println("Invalid command. Type help for information.");
+            metrics.recordInvalidCommand();
+            out.println("Invalid command. Type help for information.");
         }
         return true;
     }
@@ -114,10 +649,39 @@ public class EscapeApp implements CommandHandler {
 
     @Override
     public void printHelp() {
-        System.out.println("help prints common commands, but there may be additional secret commands.");
-        for (CommandHandler ch : handlers) {
+        out.println("help prints common commands, but there may be additional secret commands.");
+        out.println("Several commands can be typed on one line separated by " + COMMAND_SEPARATOR + ".");
+        for (CommandHandler ch : helpPrinters) {
             ch.printHelp();
         }
+        if (renderedHelp == null) {
+            renderedHelp = renderHelpGroups();
+        }
+        out.print(renderedHelp);
+    }
+
+    /**
+     * Renders each help heading with the names listed under it, one line each.
+     * This is only done when the handlers have changed since the last time help
+     * was printed.
+     * 
+     * @return the rendered headings
+     */
+    private String renderHelpGroups() {
+        StringBuilder help = new StringBuilder();
+        for (Map.Entry<String, Map<String, Integer>> group : helpGroups.entrySet()) {
+            if (group.getValue().isEmpty()) {
+                continue;
+            }
+            help.append(group.getKey());
+            String separator = " ";
+            for (String name : group.getValue().keySet()) {
+                help.append(separator).append(name);
+                separator = ", ";
+            }
+            help.append(System.lineSeparator());
+        }
+        return help.toString();
     }
 
 }
@@ -0,0 +1,192 @@
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Scanner;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Hosts an escape room for many players at once. Every connection on the
+ * server's port gets its own room and its own EscapeApp that reads from and
+ * prints to that connection. Each session runs on a virtual thread when the
+ * JVM supports them (Java 21 and later), so a session waiting for its player to
+ * type does not hold on to a platform thread.
+ */
+public class EscapeServer {
+    /** the port used when none is given on the command line */
+    public static final int DEFAULT_PORT = 4000;
+
+    /** creates a new room for each session */
+    private Supplier<Room> rooms;
+
+    /** runs the sessions */
+    private ExecutorService sessions;
+
+    /** parks the games of idle players, or null to keep every game in memory */
+    private SessionStore store;
+
+    /**
+     * Creates a server that gives each session a room created by the given
+     * supplier.
+     *
+     * @param rooms creates a new room for each session
+     */
+    public EscapeServer(Supplier<Room> rooms) {
+        this.rooms = rooms;
+        this.sessions = newSessionExecutor();
+    }
+
+    /**
+     * Keeps the games in the given store, so the games of idle players are parked
+     * on disk instead of staying in memory. The store must create the same kind of
+     * rooms as this server.
+     *
+     * @param store the store to keep the games in, or null to keep every game in
+     *              memory
+     */
+    public void setSessionStore(SessionStore store) {
+        this.store = store;
+    }
+
+    /**
+     * Accepts connections on the given local port until the server socket is
+     * closed, starting a session for each one.
+     *
+     * @param port the local port to listen on
+     * @throws IOException if the server socket cannot be opened
+     */
+    public void serve(int port) throws IOException {
+        try (ServerSocket server = new ServerSocket(port, 128, InetAddress.getLoopbackAddress())) {
+            System.out.println("Escape room server listening on port " + server.getLocalPort());
+            while (!server.isClosed()) {
+                Socket socket = server.accept();
+                sessions.execute(() -> runSession(socket));
+            }
+        } finally {
+            sessions.shutdown();
+        }
+    }
+
+    /**
+     * Plays one game over the given connection and closes it when the game ends or
+     * the player disconnects.
+     *
+     * @param socket the player's connection
+     */
+    private void runSession(Socket socket) {
+        try (Socket s = socket) {
+            Scanner in = new Scanner(s.getInputStream(), StandardCharsets.UTF_8);
+            GameOutput out = new GameOutput(new StreamSink(s.getOutputStream()));
+            if (store == null) {
+                new EscapeApp(rooms.get(), in, out).runGame();
+            } else {
+                runStoredGame(in, out);
+            }
+            out.flush();
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Session " + socket.getRemoteSocketAddress() + " ended: " + e);
+        }
+    }
+
+    /**
+     * Plays one game kept in the session store. The game is only acquired while a
+     * line is being played, so it can be parked while the player is thinking.
+     *
+     * @param in  the player's input
+     * @param out the player's output
+     */
+    private void runStoredGame(Scanner in, GameOutput out) {
+        long id = store.open(in, out);
+        try {
+            store.acquire(id).startGame();
+            store.release(id);
+            boolean over = false;
+            while (!over && in.hasNextLine()) {
+                String line = in.nextLine();
+                EscapeApp app = store.acquire(id);
+                try {
+                    over = app.playLine(line);
+                } finally {
+                    store.release(id);
+                }
+            }
+        } finally {
+            store.remove(id);
+        }
+    }
+
+    /**
+     * Returns an executor that starts a virtual thread for each session, or a
+     * cached thread pool if this JVM does not have virtual threads.
+     *
+     * @return an executor to run the sessions on
+     */
+    private static ExecutorService newSessionExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    /**
+     * Usage: java EscapeServer [port] [room-definition-file]
+     *
+     * Without a room definition file (see RoomTemplate), every session plays the
+     * prisoner's escape.
+     *
+     * The game metrics (see GameMetrics) are available through JMX. If the
+     * escape.metricsFile system property is set, they are also written to that
+     * file every escape.metricsPeriod seconds (60 by default).
+     *
+     * If the escape.leaderboardFile system property is set, the leaderboard (see
+     * Leaderboard) is loaded from that file if it exists and saved to it every
+     * escape.leaderboardPeriod seconds (60 by default).
+     *
+     * If the escape.sessionFile system property is set, the games are kept in a
+     * SessionStore that parks them in that file when they have not been played for
+     * escape.idleSeconds seconds (300 by default) or when the live games would
+     * take more than escape.sessionHeapMB megabytes (64 by default).
+     */
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        GameMetrics.global().registerMBean();
+        String metricsFile = System.getProperty("escape.metricsFile");
+        if (metricsFile != null) {
+            GameMetrics.global().writeSnapshots(Paths.get(metricsFile), Long.getLong("escape.metricsPeriod", 60),
+                    TimeUnit.SECONDS);
+        }
+        String leaderboardFile = System.getProperty("escape.leaderboardFile");
+        if (leaderboardFile != null) {
+            Path file = Paths.get(leaderboardFile);
+            if (Files.exists(file)) {
+                Leaderboard.global().load(file);
+            }
+            Leaderboard.global().saveEvery(file, Long.getLong("escape.leaderboardPeriod", 60), TimeUnit.SECONDS);
+        }
+        Supplier<Room> rooms;
+        if (args.length > 1) {
+            RoomTemplate template = RoomTemplate.load(Paths.get(args[1]));
+            rooms = template::newRoom;
+        } else {
+            rooms = WizardLabDriver::createLab;
+        }
+        EscapeServer server = new EscapeServer(rooms);
+        String sessionFile = System.getProperty("escape.sessionFile");
+        if (sessionFile != null) {
+            long idleSeconds = Long.getLong("escape.idleSeconds", 300);
+            SessionStore store = new SessionStore(rooms, Paths.get(sessionFile),
+                    Long.getLong("escape.sessionHeapMB", 64) * 1024 * 1024, idleSeconds * 1000);
+            store.evictIdleEvery(Math.max(1, idleSeconds / 2), TimeUnit.SECONDS);
+            server.setSessionStore(store);
+        }
+        server.serve(port);
+    }
+}
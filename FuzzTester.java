@@ -0,0 +1,393 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Scanner;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Plays random games against many rooms in parallel looking for commands that
+ * crash the game or leave the room in a broken state.
+ *
+ * Each game is a script of lines. Most lines are grammar-aware: a verb the
+ * handlers understand followed by names of items in the room, with a password
+ * (usually the right one) after each unlock. The rest are random mixes of those
+ * words and junk like empty lines, stray spaces and very long words. After
+ * every command the room is checked: every item in it must have a unique name,
+ * be found by getItem and know that it is in the room, and the room's item
+ * names (see Room.getItemNamesStartingWith) must be the names of its items, and
+ * the contents of a container in the room must be in the room exactly when the
+ * container is open.
+ *
+ * When a game fails, the script is shrunk to a minimal one that fails the same
+ * way, by removing chunks of lines and then single lines for as long as the
+ * game still fails.
+ *
+ * Scripts that failed before are kept in REGRESSIONS and played before the
+ * random games, so a bug that was fixed cannot come back unnoticed. main exits
+ * with status 1 if any game fails, so it can be run as a check.
+ */
+public class FuzzTester {
+    /** the verbs the built-in handlers understand */
+    private static final String[] VERBS = { "look", "use", "combine", "order", "say", "open", "close", "unlock",
+            "help" };
+
+    /** lines that are not made of words from the room */
+    private static final String[] JUNK = { "", " ", "  ", "use", "use ", " use x", "say", "say 21 21", "21",
+            "combine", "order milk", "\t", "open", "unlock", "close ", "LOOK", "help me", "xyzzy" };
+
+    /**
+     * shrunk scripts of failures found by earlier runs, played before the random
+     * games
+     */
+    private static final List<List<String>> REGRESSIONS = List.of(
+            // closing the cookbook left the pizza from the open pizza_box in the room,
+            // so opening it again threw "This room already contains a pizza"
+            List.of("unlock cookbook", "pineapple", "open cookbook", "open pizza_box", "close cookbook",
+                    "open cookbook"));
+
+    /** creates a fresh room for each game */
+    private Supplier<? extends Room> rooms;
+
+    /** the names of every item that can be in the room */
+    private List<String> itemNames;
+
+    /** the passwords in the room by container name */
+    private Map<String, String> passwords;
+
+    /** the number of commands played by every game so far */
+    private LongAdder commands = new LongAdder();
+
+    /** the number of games played so far */
+    private LongAdder games = new LongAdder();
+
+    /** the metrics the games record into, kept apart from real games */
+    private GameMetrics metrics = new GameMetrics();
+
+    /**
+     * A game that crashed or broke the room.
+     */
+    public static class Failure {
+        private List<String> script;
+        private Throwable error;
+
+        private Failure(List<String> script, Throwable error) {
+            this.script = script;
+            this.error = error;
+        }
+
+        /**
+         * Returns the lines of the (shrunk) game that failed.
+         *
+         * @return the lines of the game
+         */
+        public List<String> getScript() {
+            return script;
+        }
+
+        /**
+         * Returns what went wrong.
+         *
+         * @return the exception thrown by the game
+         */
+        public Throwable getError() {
+            return error;
+        }
+    }
+
+    /**
+     * Creates a fuzz tester for the rooms created by the given supplier. The
+     * supplier is called from many threads at once.
+     *
+     * @param rooms creates a fresh room for each game
+     */
+    public FuzzTester(Supplier<? extends Room> rooms) {
+        this.rooms = rooms;
+        Room sample = rooms.get();
+        Set<String> names = new LinkedHashSet<>();
+        for (Item item : sample.getItems()) {
+            collectNames(item, names);
+        }
+        for (Recipe recipe : sample.getRecipes()) {
+            names.addAll(recipe.getIngredients());
+        }
+        names.add("twenty_one_paper");
+        names.add("platinum_key");
+        itemNames = new ArrayList<>(names);
+        passwords = RoomSolver.passwordsOf(sample);
+    }
+
+    private static void collectNames(Item item, Set<String> names) {
+        names.add(item.getName());
+        if (item instanceof Container) {
+            for (Item inside : ((Container) item).getContents()) {
+                collectNames(inside, names);
+            }
+        }
+    }
+
+    /**
+     * Returns a random script of the given length.
+     *
+     * @param random where to get random numbers
+     * @param length the number of commands in the script
+     * @return the lines of the script
+     */
+    public List<String> randomScript(Random random, int length) {
+        List<String> script = new ArrayList<>(length + length / 4);
+        for (int i = 0; i < length; i++) {
+            if (random.nextInt(10) < 7) {
+                String verb = VERBS[random.nextInt(VERBS.length)];
+                String item = itemNames.get(random.nextInt(itemNames.size()));
+                switch (verb) {
+                case "look":
+                case "help":
+                    script.add(verb);
+                    break;
+                case "combine":
+                case "order":
+                    StringBuilder line = new StringBuilder(verb);
+                    for (int n = random.nextInt(6); n > 0; n--) {
+                        line.append(' ').append(itemNames.get(random.nextInt(itemNames.size())));
+                    }
+                    script.add(line.toString());
+                    break;
+                case "say":
+                    script.add(random.nextBoolean() ? "say 21" : "say " + item);
+                    break;
+                case "unlock":
+                    script.add("unlock " + item);
+                    String password = passwords.get(item);
+                    script.add(password != null && random.nextInt(4) > 0 ? password
+                            : String.valueOf(random.nextInt(10000)));
+                    break;
+                default:
+                    script.add(verb + " " + item);
+                }
+            } else {
+                script.add(junk(random));
+            }
+        }
+        return script;
+    }
+
+    private String junk(Random random) {
+        switch (random.nextInt(4)) {
+        case 0:
+            return JUNK[random.nextInt(JUNK.length)];
+        case 1:
+            return VERBS[random.nextInt(VERBS.length)] + "  " + itemNames.get(random.nextInt(itemNames.size()));
+        case 2:
+            StringBuilder word = new StringBuilder();
+            for (int n = random.nextInt(300); n > 0; n--) {
+                word.append((char) (' ' + random.nextInt(95)));
+            }
+            return word.toString();
+        default:
+            return itemNames.get(random.nextInt(itemNames.size())) + " "
+                    + VERBS[random.nextInt(VERBS.length)];
+        }
+    }
+
+    /**
+     * Plays the script against a fresh room, checking the room after every command,
+     * until the script runs out or the room is escaped or failed.
+     *
+     * @param script the lines to type
+     * @return the exception the game threw, or null if it did not fail
+     */
+    public Throwable play(List<String> script) {
+        Room room = rooms.get();
+        EscapeApp app = new EscapeApp(room, new Scanner(String.join("\n", script)), new GameOutput(OutputSink.NULL));
+        app.setMetrics(metrics);
+        Scanner in = app.getInput();
+        int played = 0;
+        try {
+            while (in.hasNextLine() && !room.escaped() && !room.failed()) {
+                app.processLine(in.nextLine());
+                played++;
+                checkRoom(room);
+            }
+            return null;
+        } catch (RuntimeException | StackOverflowError e) {
+            return e;
+        } finally {
+            commands.add(played);
+            games.increment();
+        }
+    }
+
+    /**
+     * Throws an IllegalStateException if the room's items are not consistent with
+     * each other.
+     */
+    private static void checkRoom(Room room) {
+        Set<String> names = new LinkedHashSet<>();
+        Set<Item> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (Item item : room.getItems()) {
+            if (!names.add(item.getName())) {
+                throw new IllegalStateException("The room contains two items named " + item.getName());
+            }
+            if (!seen.add(item) || room.getItem(item.getName()) != item) {
+                throw new IllegalStateException("getItem does not find " + item.getName());
+            }
+            if (item.getRoom() != room) {
+                throw new IllegalStateException(item.getName() + " does not know it is in the room");
+            }
+            if (item instanceof Container) {
+                Container container = (Container) item;
+                for (Item inside : container.getContents()) {
+                    if ((room.getItem(inside.getName()) == inside) != container.isOpen()) {
+                        throw new IllegalStateException(inside.getName() + " is " + (container.isOpen() ? "not " : "")
+                                + "in the room although " + container.getName() + " is "
+                                + (container.isOpen() ? "open" : "closed"));
+                    }
+                }
+            }
+        }
+        if (room.getItemNamesStartingWith("", Integer.MAX_VALUE).size() != names.size()) {
+            throw new IllegalStateException("The item names do not match the items in the room");
+        }
+    }
+
+    /**
+     * Shrinks a failing script to a smaller one that fails the same way (with the
+     * same kind of exception thrown from the same place).
+     *
+     * @param script the failing script
+     * @param error  the exception it threw
+     * @return a script that no line can be removed from without it passing
+     */
+    public List<String> shrink(List<String> script, Throwable error) {
+        String signature = signatureOf(error);
+        List<String> current = new ArrayList<>(script);
+        for (int chunk = Math.max(1, current.size() / 2); chunk >= 1; chunk /= 2) {
+            boolean removed = true;
+            while (removed) {
+                removed = false;
+                for (int start = 0; start < current.size(); start += chunk) {
+                    List<String> candidate = new ArrayList<>(current.subList(0, start));
+                    candidate.addAll(current.subList(Math.min(current.size(), start + chunk), current.size()));
+                    Throwable failure = play(candidate);
+                    if (failure != null && signatureOf(failure).equals(signature)) {
+                        current = candidate;
+                        removed = true;
+                        start -= chunk;
+                    }
+                }
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Returns the kind of exception and where it was thrown, which is how failures
+     * are told apart.
+     */
+    private static String signatureOf(Throwable error) {
+        StackTraceElement[] trace = error.getStackTrace();
+        return error.getClass().getName() + (trace.length > 0 ? " at " + trace[0] : "");
+    }
+
+    /**
+     * Plays the regression scripts and then random games on the given number of
+     * threads for the given time, and returns the shrunk failures, one for each
+     * distinct way of failing.
+     *
+     * @param threads the number of threads
+     * @param millis  how long to play for in milliseconds
+     * @param seed    the seed of the random scripts, so runs can be repeated
+     * @return the failures found
+     */
+    public List<Failure> run(int threads, long millis, long seed) {
+        Map<String, Failure> failures = new ConcurrentHashMap<>();
+        for (List<String> script : REGRESSIONS) {
+            Throwable error = play(script);
+            if (error != null) {
+                failures.putIfAbsent(signatureOf(error), new Failure(script, error));
+            }
+        }
+        long deadline = System.nanoTime() + millis * 1_000_000;
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            Random random = new Random(seed + t);
+            Thread worker = new Thread(() -> {
+                while (System.nanoTime() < deadline) {
+                    List<String> script = randomScript(random, 10 + random.nextInt(60));
+                    Throwable error = play(script);
+                    if (error != null && !failures.containsKey(signatureOf(error))) {
+                        List<String> shrunk = shrink(script, error);
+                        failures.putIfAbsent(signatureOf(error), new Failure(shrunk, play(shrunk)));
+                    }
+                }
+            }, "fuzz-" + t);
+            workers.add(worker);
+            worker.start();
+        }
+        for (Thread worker : workers) {
+            try {
+                worker.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while fuzzing", e);
+            }
+        }
+        return new ArrayList<>(failures.values());
+    }
+
+    /**
+     * Returns the number of commands played so far.
+     *
+     * @return the number of commands played so far
+     */
+    public long getCommandCount() {
+        return commands.sum();
+    }
+
+    /**
+     * Returns the number of games played so far.
+     *
+     * @return the number of games played so far
+     */
+    public long getGameCount() {
+        return games.sum();
+    }
+
+    /**
+     * Fuzzes the prisoner's escape and prints the failures found and the
+     * throughput. Exits with status 1 if there were any failures.
+     *
+     * Usage: java FuzzTester [seconds] [threads] [seed]
+     */
+    public static void main(String[] args) {
+        long seconds = args.length > 0 ? Long.parseLong(args[0]) : 10;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        long seed = args.length > 2 ? Long.parseLong(args[2]) : System.currentTimeMillis();
+
+        FuzzTester fuzzer = new FuzzTester(WizardLabDriver::createLab);
+        long start = System.nanoTime();
+        List<Failure> failures = fuzzer.run(threads, seconds * 1000, seed);
+        double elapsed = (System.nanoTime() - start) / 1e9;
+
+        for (Failure failure : failures) {
+            System.out.println("FAILURE: " + failure.getError());
+            for (String line : failure.getScript()) {
+                System.out.println("  > " + line);
+            }
+        }
+        double perSecond = fuzzer.getCommandCount() / elapsed;
+        System.out.printf("seed %d: %d games, %d commands in %.1f s on %d threads%n", seed, fuzzer.getGameCount(),
+                fuzzer.getCommandCount(), elapsed, threads);
+        System.out.printf("%.0f commands/s (%.0f per core, %.1f million per minute), %d distinct failures%n",
+                perSecond, perSecond / threads, perSecond * 60 / 1e6, failures.size());
+        if (!failures.isEmpty()) {
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,380 @@
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Counters and histograms describing the games played in this JVM: how long
+ * each kind of command takes, which handlers handle commands, how many commands
+ * are not handled or invalid, how often each recipe is combined, how many
+ * password attempts each container gets and how many turns players take to
+ * escape or fail.
+ *
+ * Every session records into the same GameMetrics (see global()). All the
+ * counters are LongAdders, so recording never takes a lock and sessions on
+ * different threads do not contend. The metrics can be read through JMX (see
+ * registerMBean()) or written to a file periodically (see writeSnapshots()).
+ */
+public class GameMetrics implements GameMetricsMBean {
+    /** the name the metrics are registered under in JMX */
+    public static final String OBJECT_NAME = "EscapeRoom:type=GameMetrics";
+
+    /** the label used for commands whose verb no handler declared */
+    public static final String OTHER_VERB = "(other)";
+
+    /** the metrics shared by every session in this JVM */
+    private static final GameMetrics GLOBAL = new GameMetrics();
+
+    /** how long commands take, by verb */
+    private Map<String, Histogram> commandLatency = new ConcurrentHashMap<>();
+
+    /** how many commands each kind of handler handled */
+    private Map<String, LongAdder> handlerHits = new ConcurrentHashMap<>();
+
+    /** how many commands no handler handled */
+    private LongAdder unhandled = new LongAdder();
+
+    /** how many commands were reported as invalid */
+    private LongAdder invalid = new LongAdder();
+
+    /** how many times each recipe was combined, by recipe key */
+    private Map<String, LongAdder> recipeSuccesses = new ConcurrentHashMap<>();
+
+    /** how many combine attempts matched no recipe */
+    private LongAdder combineFailures = new LongAdder();
+
+    /** how many times a password was tried on each container */
+    private Map<String, LongAdder> passwordAttempts = new ConcurrentHashMap<>();
+
+    /** how many times a wrong password was tried on each container */
+    private Map<String, LongAdder> passwordFailures = new ConcurrentHashMap<>();
+
+    /** how many turns players took to escape, by number of turns */
+    private Map<Integer, LongAdder> turnsToEscape = new ConcurrentHashMap<>();
+
+    /** how many turns players took to fail, by number of turns */
+    private Map<Integer, LongAdder> turnsToFail = new ConcurrentHashMap<>();
+
+    /**
+     * A histogram of durations in nanoseconds, with one bucket per power of two.
+     */
+    static class Histogram {
+        /** bucket i counts durations between 2^i and 2^(i+1) - 1 nanoseconds */
+        private LongAdder[] buckets = new LongAdder[64];
+
+        /** the sum of all durations */
+        private LongAdder total = new LongAdder();
+
+        Histogram() {
+            for (int i = 0; i < buckets.length; i++) {
+                buckets[i] = new LongAdder();
+            }
+        }
+
+        /**
+         * Records a duration.
+         *
+         * @param nanos the duration in nanoseconds
+         */
+        void record(long nanos) {
+            buckets[63 - Long.numberOfLeadingZeros(Math.max(nanos, 1))].increment();
+            total.add(nanos);
+        }
+
+        /**
+         * Returns the number of durations recorded.
+         *
+         * @return the number of durations recorded
+         */
+        long count() {
+            long count = 0;
+            for (LongAdder bucket : buckets) {
+                count += bucket.sum();
+            }
+            return count;
+        }
+
+        /**
+         * Returns an upper bound for the given percentile of the durations recorded,
+         * in nanoseconds.
+         *
+         * @param percentile the percentile, between 0 and 100
+         * @return an upper bound for the percentile, or 0 if nothing was recorded
+         */
+        long percentile(double percentile) {
+            long[] counts = new long[buckets.length];
+            long count = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                counts[i] = buckets[i].sum();
+                count += counts[i];
+            }
+            long rank = (long) Math.ceil(count * percentile / 100);
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank && seen > 0) {
+                    return i == 62 ? Long.MAX_VALUE : (1L << (i + 1)) - 1;
+                }
+            }
+            return 0;
+        }
+
+        @Override
+        public String toString() {
+            long count = count();
+            return "count=" + count + " mean_us=" + (count == 0 ? 0 : total.sum() / count / 1000) + " p50_us<="
+                    + percentile(50) / 1000 + " p99_us<=" + percentile(99) / 1000 + " max_us<="
+                    + percentile(100) / 1000;
+        }
+    }
+
+    /**
+     * Returns the metrics shared by every session in this JVM.
+     *
+     * @return the metrics shared by every session in this JVM
+     */
+    public static GameMetrics global() {
+        return GLOBAL;
+    }
+
+    /**
+     * Records a command that took the given time. The verb should be one a handler
+     * declared (see CommandHandler.getRoutes()) or OTHER_VERB, so that players
+     * typing nonsense cannot create new histograms.
+     *
+     * @param verb    the command's verb
+     * @param handler the handler that handled it, or null if none did
+     * @param nanos   how long it took in nanoseconds
+     */
+    public void recordCommand(String verb, CommandHandler handler, long nanos) {
+        commandLatency.computeIfAbsent(verb, v -> new Histogram()).record(nanos);
+        if (handler == null) {
+            unhandled.increment();
+        } else {
+            handlerHits.computeIfAbsent(handler.getClass().getSimpleName(), h -> new LongAdder()).increment();
+        }
+    }
+
+    /**
+     * Records a command that was reported as invalid.
+     */
+    public void recordInvalidCommand() {
+        invalid.increment();
+    }
+
+    /**
+     * Records a combine attempt.
+     *
+     * @param recipe the recipe that was combined, or null if none matched
+     */
+    public void recordCombine(Recipe recipe) {
+        if (recipe == null) {
+            combineFailures.increment();
+        } else {
+            recipeSuccesses.computeIfAbsent(recipe.getKey(), k -> new LongAdder()).increment();
+        }
+    }
+
+    /**
+     * Records a password attempt on a container.
+     *
+     * @param container the name of the container
+     * @param success   whether the password was right
+     */
+    public void recordPasswordAttempt(String container, boolean success) {
+        passwordAttempts.computeIfAbsent(container, c -> new LongAdder()).increment();
+        if (!success) {
+            passwordFailures.computeIfAbsent(container, c -> new LongAdder()).increment();
+        }
+    }
+
+    /**
+     * Records a player escaping a room.
+     *
+     * @param turns the number of turns the player took
+     */
+    public void recordEscape(int turns) {
+        turnsToEscape.computeIfAbsent(turns, t -> new LongAdder()).increment();
+    }
+
+    /**
+     * Records a player failing a room.
+     *
+     * @param turns the number of turns the player took
+     */
+    public void recordFailure(int turns) {
+        turnsToFail.computeIfAbsent(turns, t -> new LongAdder()).increment();
+    }
+
+    @Override
+    public long getCommandCount() {
+        long count = 0;
+        for (Histogram histogram : commandLatency.values()) {
+            count += histogram.count();
+        }
+        return count;
+    }
+
+    @Override
+    public long getUnhandledCount() {
+        return unhandled.sum();
+    }
+
+    @Override
+    public long getInvalidCount() {
+        return invalid.sum();
+    }
+
+    @Override
+    public long getCombineSuccesses() {
+        return sum(recipeSuccesses);
+    }
+
+    @Override
+    public long getCombineFailures() {
+        return combineFailures.sum();
+    }
+
+    @Override
+    public long getEscapes() {
+        return sum(turnsToEscape);
+    }
+
+    @Override
+    public long getFailures() {
+        return sum(turnsToFail);
+    }
+
+    @Override
+    public Map<String, String> getCommandLatency() {
+        Map<String, String> latency = new TreeMap<>();
+        commandLatency.forEach((verb, histogram) -> latency.put(verb, histogram.toString()));
+        return latency;
+    }
+
+    @Override
+    public Map<String, Long> getHandlerHits() {
+        return sums(handlerHits);
+    }
+
+    @Override
+    public Map<String, Long> getRecipeSuccesses() {
+        return sums(recipeSuccesses);
+    }
+
+    @Override
+    public Map<String, Long> getPasswordAttempts() {
+        return sums(passwordAttempts);
+    }
+
+    @Override
+    public Map<String, Long> getPasswordFailures() {
+        return sums(passwordFailures);
+    }
+
+    @Override
+    public Map<Integer, Long> getTurnsToEscape() {
+        return sums(turnsToEscape);
+    }
+
+    @Override
+    public Map<Integer, Long> getTurnsToFail() {
+        return sums(turnsToFail);
+    }
+
+    /**
+     * Returns every metric, one per line, in the form name=value.
+     *
+     * @return every metric, one per line
+     */
+    @Override
+    public String getReport() {
+        StringBuilder report = new StringBuilder();
+        report.append("commands=").append(getCommandCount()).append('\n');
+        report.append("unhandled=").append(getUnhandledCount()).append('\n');
+        report.append("invalid=").append(getInvalidCount()).append('\n');
+        getCommandLatency().forEach((k, v) -> report.append("latency.").append(k).append('=').append(v).append('\n'));
+        getHandlerHits().forEach((k, v) -> report.append("handler.").append(k).append('=').append(v).append('\n'));
+        report.append("combine.failures=").append(getCombineFailures()).append('\n');
+        getRecipeSuccesses().forEach((k, v) -> report.append("combine.success.").append(k.trim()).append('=')
+                .append(v).append('\n'));
+        getPasswordAttempts().forEach((k, v) -> report.append("password.attempts.").append(k).append('=').append(v)
+                .append('\n'));
+        getPasswordFailures().forEach((k, v) -> report.append("password.failures.").append(k).append('=').append(v)
+                .append('\n'));
+        getTurnsToEscape().forEach((k, v) -> report.append("escaped.turns.").append(k).append('=').append(v)
+                .append('\n'));
+        getTurnsToFail().forEach((k, v) -> report.append("failed.turns.").append(k).append('=').append(v)
+                .append('\n'));
+        return report.toString();
+    }
+
+    /**
+     * Registers these metrics with the platform MBean server under OBJECT_NAME, so
+     * that they can be read with tools like JConsole. Registering more than once
+     * has no effect.
+     */
+    public void registerMBean() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(OBJECT_NAME));
+        } catch (InstanceAlreadyExistsException e) {
+            // already registered
+        } catch (JMException e) {
+            throw new IllegalStateException("Cannot register game metrics", e);
+        }
+    }
+
+    /**
+     * Writes the report to the given file now and then every period, replacing
+     * the file each time. The snapshots are written on a daemon thread until the
+     * returned future is cancelled.
+     *
+     * @param file   the file to write
+     * @param period the time between snapshots
+     * @param unit   the unit of the period
+     * @return the future to cancel to stop writing snapshots
+     */
+    public ScheduledFuture<?> writeSnapshots(Path file, long period, TimeUnit unit) {
+        ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "game-metrics-snapshots");
+            thread.setDaemon(true);
+            return thread;
+        });
+        return timer.scheduleAtFixedRate(() -> {
+            try {
+                Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+                Files.write(temp, getReport().getBytes(StandardCharsets.UTF_8));
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                System.err.println("Cannot write game metrics to " + file + ": " + e);
+            }
+        }, 0, period, unit);
+    }
+
+    private static long sum(Map<?, LongAdder> counters) {
+        long sum = 0;
+        for (LongAdder counter : counters.values()) {
+            sum += counter.sum();
+        }
+        return sum;
+    }
+
+    private static <K> Map<K, Long> sums(Map<K, LongAdder> counters) {
+        Map<K, Long> sums = new TreeMap<>();
+        counters.forEach((key, counter) -> sums.put(key, counter.sum()));
+        return sums;
+    }
+}
@@ -0,0 +1,36 @@
+import java.util.Map;
+
+/**
+ * The JMX view of GameMetrics. See GameMetrics for what each metric means.
+ */
+public interface GameMetricsMBean {
+    public long getCommandCount();
+
+    public long getUnhandledCount();
+
+    public long getInvalidCount();
+
+    public long getCombineSuccesses();
+
+    public long getCombineFailures();
+
+    public long getEscapes();
+
+    public long getFailures();
+
+    public Map<String, String> getCommandLatency();
+
+    public Map<String, Long> getHandlerHits();
+
+    public Map<String, Long> getRecipeSuccesses();
+
+    public Map<String, Long> getPasswordAttempts();
+
+    public Map<String, Long> getPasswordFailures();
+
+    public Map<Integer, Long> getTurnsToEscape();
+
+    public Map<Integer, Long> getTurnsToFail();
+
+    public String getReport();
+}
@@ -0,0 +1,134 @@
+/**
+ * The output of one game session. Text printed during a turn is collected in a
+ * buffer that is reused from turn to turn and handed to the sink in one piece
+ * when the turn is flushed, instead of being written line by line. A GameOutput
+ * belongs to a single session and is not thread safe.
+ */
+public class GameOutput {
+    /** the line separator printed by println */
+    private static final String NEWLINE = System.lineSeparator();
+
+    /** buffers larger than this are not kept around after a flush */
+    private static final int MAX_RETAINED_CAPACITY = 64 * 1024;
+
+    /** the text printed since the last flush */
+    private StringBuilder buffer = new StringBuilder(1024);
+
+    /** where the text goes when it is flushed */
+    private OutputSink sink;
+
+    /** whether to flush after every print */
+    private boolean autoFlush;
+
+    /**
+     * Creates an output that sends its text to the given sink whenever it is
+     * flushed.
+     * 
+     * @param sink where the text goes when it is flushed
+     */
+    public GameOutput(OutputSink sink) {
+        this(sink, false);
+    }
+
+    /**
+     * Creates an output that sends its text to the given sink whenever it is
+     * flushed, or after every print if autoFlush is true.
+     * 
+     * @param sink      where the text goes when it is flushed
+     * @param autoFlush whether to flush after every print
+     */
+    public GameOutput(OutputSink sink, boolean autoFlush) {
+        this.sink = sink;
+        this.autoFlush = autoFlush;
+    }
+
+    /**
+     * Returns an output that prints straight to System.out. This is used when
+     * something is printed outside of a running game.
+     * 
+     * @return an output that prints straight to System.out
+     */
+    public static GameOutput console() {
+        return new GameOutput(OutputSink.console(), true);
+    }
+
+    /**
+     * Returns the sink this output sends its text to.
+     * 
+     * @return the sink this output sends its text to
+     */
+    public OutputSink getSink() {
+        return sink;
+    }
+
+    /**
+     * Sets the sink this output sends its text to. Text printed but not yet
+     * flushed goes to the new sink.
+     * 
+     * @param sink where the text goes when it is flushed
+     */
+    public void setSink(OutputSink sink) {
+        this.sink = sink;
+    }
+
+    /**
+     * Prints the text.
+     * 
+     * @param text the text to print
+     */
+    public void print(String text) {
+        buffer.append(text);
+        if (autoFlush) {
+            flush();
+        }
+    }
+
+    /**
+     * Prints the text followed by a line separator.
+     * 
+     * @param text the text to print
+     */
+    public void println(String text) {
+        buffer.append(text).append(NEWLINE);
+        if (autoFlush) {
+            flush();
+        }
+    }
+
+    /**
+     * Prints a text from the shared TextStore followed by a line separator,
+     * copying it straight from the store instead of making a String.
+     * 
+     * @param id the id of the text in TextStore.shared()
+     */
+    public void printlnText(int id) {
+        TextStore.shared().appendTo(id, buffer);
+        buffer.append(NEWLINE);
+        if (autoFlush) {
+            flush();
+        }
+    }
+
+    /**
+     * Prints a line separator.
+     */
+    public void println() {
+        println("");
+    }
+
+    /**
+     * Sends everything printed since the last flush to the sink and flushes the
+     * sink.
+     */
+    public void flush() {
+        if (buffer.length() > 0) {
+            sink.write(buffer);
+            if (buffer.capacity() > MAX_RETAINED_CAPACITY) {
+                buffer = new StringBuilder(1024);
+            } else {
+                buffer.setLength(0);
+            }
+        }
+        sink.flush();
+    }
+}
@@ -0,0 +1,14 @@
+/**
+ * Handles the next line the player types instead of it being run as a command
+ * (see EscapeApp.awaitInput). Handlers that need to ask the player something,
+ * like a password, use this instead of reading the input themselves, so the game
+ * never waits for the player inside a handler.
+ */
+public interface InputHandler {
+    /**
+     * Called with the next line the player typed.
+     * 
+     * @param line the line the player typed
+     */
+    public void handleInput(String line);
+}
@@ -1,14 +1,19 @@
-
 public abstract class Item {
     /** The name of the item */
     private String name;
 
-    /** The description of the item */
-    private String description;
+    /** The id of the description of the item in TextStore.shared() */
+    private int description;
 
     /** A reference to the room the item is in (will be null if not in a room) */
     private Room room;
 
+    /**
+     * A reference to the container the item is in (will be null if not in a
+     * container)
+     */
+    private Container container;
+
     /**
      * Create an item with the given name and description.
      * 
@@ -17,6 +22,20 @@ public abstract class Item {
      * @throws IllegalArgumentException if the name contains white space
      */
     public Item(String name, String description) {
+        this(name, TextStore.shared().intern(description));
+    }
+
+    /**
+     * Create an item with the given name and a description that is already in
+     * TextStore.shared(), so it does not have to be looked up again. RoomTemplate
+     * uses this to create its items.
+     * 
+     * @param name        the name of the item
+     * @param description the id of the description of the item in
+     *                    TextStore.shared()
+     * @throws IllegalArgumentException if the name contains white space
+     */
+    public Item(String name, int description) {
         if (!isValid(name)) {
             throw new IllegalArgumentException("Item names cannot contain white space.");
         }
@@ -56,7 +75,17 @@ public abstract class Item {
      * @return the item description
      */
     public String getDescription() {
-        return description;
+        return TextStore.shared().get(description);
+    }
+
+    /**
+     * returns the item description exactly as it was given to the constructor,
+     * without anything subclasses add to it in getDescription().
+     * 
+     * @return the item description as it was given to the constructor
+     */
+    public final String getBaseDescription() {
+        return TextStore.shared().get(description);
     }
 
     /**
@@ -77,6 +106,52 @@ public abstract class Item {
         this.room = room;
     }
 
+    /**
+     * returns the container the item is in (could be null).
+     * 
+     * @return the container the item is in (could be null).
+     */
+    public Container getContainer() {
+        return container;
+    }
+
+    /**
+     * sets the container. This is called by Container.add(item) and
+     * Container.remove(item).
+     * 
+     * @param container the container to set container to
+     */
+    public void setContainer(Container container) {
+        this.container = container;
+    }
+
+    /**
+     * returns the room the item is in, either directly or nested inside containers
+     * (could be null).
+     * 
+     * @return the room the item is in, either directly or nested inside containers
+     *         (could be null).
+     */
+    public Room getEnclosingRoom() {
+        Item item = this;
+        while (item.getRoom() == null && item.getContainer() != null) {
+            item = item.getContainer();
+        }
+        return item.getRoom();
+    }
+
+    /**
+     * returns the output of the room the item is in, or the console if it is not
+     * in a room.
+     * 
+     * @return the output of the room the item is in, or the console if it is not
+     *         in a room
+     */
+    public GameOutput getOutput() {
+        Room room = getEnclosingRoom();
+        return room != null ? room.getOutput() : GameOutput.console();
+    }
+
     /**
      * returns the name and description of the item.
      */
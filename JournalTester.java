@@ -0,0 +1,137 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Scanner;
+
+/**
+ * Checks that a game recorded in a TurnJournal can be picked up again after a
+ * crash at any point, and measures what recording costs per line.
+ *
+ * The walkthrough of the prisoner's escape is split into three runs at every
+ * pair of points, including between an unlock command and its password. Each
+ * run recovers the journal left by the one before (which never closes it, like
+ * a crash), attaches the journal and plays its part of the walkthrough. The
+ * last run must escape in as many turns as playing the walkthrough straight
+ * through. Every split is tried with a small segment, so the journal is
+ * checkpointed often, and a large one, so recovery replays a long tail.
+ *
+ * Usage: java JournalTester
+ *
+ * Exits with status 1 if any split fails.
+ */
+public class JournalTester {
+    /** the segment sizes every split is tried with */
+    private static final int[] SEGMENT_SIZES = { 1024, 1 << 20 };
+
+    /** the number of walkthroughs timed with and without a journal */
+    private static final int TIMED_GAMES = 2000;
+
+    private static final List<String> WALKTHROUGH = ReplayRunner.WIZARDS_LAB_WALKTHROUGH;
+
+    /**
+     * Plays the lines from start to end in a new game, after recovering the
+     * journal in the file, and returns the game's room. The journal is left open,
+     * as if the JVM had crashed.
+     */
+    private static WizardsLab play(Path file, int segmentSize, int start, int end) throws IOException {
+        WizardsLab room = WizardLabDriver.createLab();
+        EscapeApp app = new EscapeApp(room, new Scanner(""), new GameOutput(OutputSink.NULL));
+        app.setMetrics(new GameMetrics());
+        app.setLeaderboard(new Leaderboard(Leaderboard.DEFAULT_SIZE));
+        TurnJournal journal = new TurnJournal(file, segmentSize, 8);
+        journal.recover(app);
+        journal.attach(app);
+        for (int i = start; i < end; i++) {
+            app.processLine(WALKTHROUGH.get(i));
+        }
+        return room;
+    }
+
+    /**
+     * Plays the walkthrough in three runs split at first and second, and returns
+     * a description of what went wrong, or null if the game escaped in the
+     * expected number of turns.
+     */
+    private static String split(int first, int second, int segmentSize, int expectedTurns) throws IOException {
+        Path dir = Files.createTempDirectory("journal-test");
+        Path file = dir.resolve("game.journal");
+        try {
+            play(file, segmentSize, 0, first);
+            play(file, segmentSize, first, second);
+            WizardsLab room = play(file, segmentSize, second, WALKTHROUGH.size());
+            if (!room.escaped() || room.getNumTurns() != expectedTurns) {
+                return "escaped " + room.escaped() + " in " + room.getNumTurns() + " turns";
+            }
+            return null;
+        } catch (RuntimeException e) {
+            return e.toString();
+        } finally {
+            try (var files = Files.list(dir)) {
+                for (Path path : (Iterable<Path>) files::iterator) {
+                    Files.delete(path);
+                }
+            }
+            Files.delete(dir);
+        }
+    }
+
+    /**
+     * Returns the average time per line, in microseconds, of playing the
+     * walkthrough TIMED_GAMES times, with or without a journal.
+     */
+    private static double timeLines(boolean journaled) throws IOException {
+        Path file = Files.createTempFile("journal-test", ".journal");
+        long lines = 0;
+        long elapsed = 0;
+        try (TurnJournal journal = new TurnJournal(file)) {
+            for (int game = 0; game < TIMED_GAMES; game++) {
+                EscapeApp app = new EscapeApp(WizardLabDriver.createLab(), new Scanner(""),
+                        new GameOutput(OutputSink.NULL));
+                app.setMetrics(new GameMetrics());
+                app.setLeaderboard(new Leaderboard(Leaderboard.DEFAULT_SIZE));
+                if (journaled) {
+                    journal.attach(app);
+                }
+                long start = System.nanoTime();
+                for (String line : WALKTHROUGH) {
+                    app.processLine(line);
+                }
+                elapsed += System.nanoTime() - start;
+                lines += WALKTHROUGH.size();
+            }
+        } finally {
+            Files.delete(file);
+        }
+        return elapsed / 1e3 / lines;
+    }
+
+    public static void main(String[] args) throws IOException {
+        int expectedTurns = new ReplayRunner(WizardLabDriver::createLab).replay(WALKTHROUGH).getTurns();
+        int splits = 0;
+        int failures = 0;
+        for (int segmentSize : SEGMENT_SIZES) {
+            for (int first = 0; first <= WALKTHROUGH.size(); first++) {
+                for (int second = first; second <= WALKTHROUGH.size(); second++) {
+                    String error = split(first, second, segmentSize, expectedTurns);
+                    splits++;
+                    if (error != null) {
+                        failures++;
+                        System.out.println("FAILURE: split after " + first + " and " + second + " lines, "
+                                + segmentSize + " byte segment: " + error);
+                    }
+                }
+            }
+        }
+        System.out.println(splits + " splits of the walkthrough, " + failures + " failed (expected an escape in "
+                + expectedTurns + " turns)");
+
+        // the first rounds warm up the JIT
+        timeLines(false);
+        timeLines(true);
+        System.out.printf("%.2f us per line with a journal, %.2f us without%n", timeLines(true), timeLines(false));
+        if (failures > 0) {
+            System.exit(1);
+        }
+    }
+}
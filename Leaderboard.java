@@ -0,0 +1,546 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The fastest escapes from each room, plus how many turns and how much time
+ * players usually take to escape or fail it.
+ *
+ * Every session records into the same Leaderboard (see global()) when its room
+ * is escaped or failed, so finishing a game must not wait for other sessions.
+ * Each room's fastest escapes are kept in a few stripes instead of one list: a
+ * finishing session picks a stripe at random and, only if it beat the slowest
+ * escape there, swaps in a new copy of that stripe with compareAndSet. Once the
+ * stripes are full most escapes are slower than all of them, so recording them
+ * is just a comparison. The stripes are merged into one ranking when someone
+ * asks for it, and the merged ranking is reused until a stripe changes, so a
+ * leaderboard screen can poll it as often as it likes. The turn and time counts
+ * are LongAdders, like the ones in GameMetrics.
+ *
+ * The leaderboard can be saved to a small binary file (see save and saveEvery)
+ * and read back (see load).
+ */
+public class Leaderboard {
+    /** the number of escapes kept per room when no other number is given */
+    public static final int DEFAULT_SIZE = 10;
+
+    /** the first four bytes of a saved leaderboard ("ESLB") */
+    private static final int MAGIC = 0x45534c42;
+
+    /** the version of the file format */
+    private static final int VERSION = 1;
+
+    /** the leaderboard shared by every session in this JVM */
+    private static final Leaderboard GLOBAL = new Leaderboard(DEFAULT_SIZE);
+
+    /** the number of escapes kept per room */
+    private int size;
+
+    /** the number of stripes each room's escapes are spread over */
+    private int stripeCount;
+
+    /** the results of each room, by room name */
+    private Map<String, Board> boards = new ConcurrentHashMap<>();
+
+    /**
+     * One escape from a room. Escapes are ordered by the number of turns, then by
+     * the time taken, then by when they happened.
+     */
+    public static final class Entry implements Comparable<Entry> {
+        private int turns;
+        private long millis;
+        private long finishedAt;
+
+        /**
+         * Creates an entry.
+         *
+         * @param turns      the number of turns the player took
+         * @param millis     how long the player took in milliseconds
+         * @param finishedAt when the player escaped, in milliseconds since the epoch
+         */
+        public Entry(int turns, long millis, long finishedAt) {
+            this.turns = turns;
+            this.millis = millis;
+            this.finishedAt = finishedAt;
+        }
+
+        /**
+         * Returns the number of turns the player took.
+         *
+         * @return the number of turns the player took
+         */
+        public int getTurns() {
+            return turns;
+        }
+
+        /**
+         * Returns how long the player took in milliseconds.
+         *
+         * @return how long the player took in milliseconds
+         */
+        public long getMillis() {
+            return millis;
+        }
+
+        /**
+         * Returns when the player escaped, in milliseconds since the epoch.
+         *
+         * @return when the player escaped
+         */
+        public long getFinishedAt() {
+            return finishedAt;
+        }
+
+        @Override
+        public int compareTo(Entry other) {
+            if (turns != other.turns) {
+                return Integer.compare(turns, other.turns);
+            }
+            if (millis != other.millis) {
+                return Long.compare(millis, other.millis);
+            }
+            return Long.compare(finishedAt, other.finishedAt);
+        }
+
+        @Override
+        public String toString() {
+            return turns + " turns in " + formatMillis(millis);
+        }
+    }
+
+    /**
+     * The results of one room.
+     */
+    private class Board {
+        /** the fastest escapes recorded in each stripe, fastest first */
+        private AtomicReferenceArray<Entry[]> stripes = new AtomicReferenceArray<>(stripeCount);
+
+        /** incremented every time a stripe changes */
+        private AtomicLong version = new AtomicLong();
+
+        /** the stripes merged, and the version they were merged at */
+        private volatile Ranking ranking = new Ranking(0, Collections.emptyList());
+
+        /** how many players escaped, by number of turns */
+        private Map<Integer, LongAdder> escapeTurns = new ConcurrentHashMap<>();
+
+        /** how many players failed, by number of turns */
+        private Map<Integer, LongAdder> failTurns = new ConcurrentHashMap<>();
+
+        /** bucket i counts escapes that took between 2^i and 2^(i+1) - 1 milliseconds */
+        private LongAdder[] escapeTime = new LongAdder[64];
+
+        Board() {
+            for (int i = 0; i < stripeCount; i++) {
+                stripes.set(i, new Entry[0]);
+            }
+            for (int i = 0; i < escapeTime.length; i++) {
+                escapeTime[i] = new LongAdder();
+            }
+        }
+
+        /**
+         * Adds the entry to the given stripe if it is one of the fastest there.
+         */
+        void offer(int stripe, Entry entry) {
+            while (true) {
+                Entry[] top = stripes.get(stripe);
+                if (top.length == size && entry.compareTo(top[size - 1]) >= 0) {
+                    return;
+                }
+                int at = -Arrays.binarySearch(top, entry) - 1;
+                if (at < 0) {
+                    // the very same escape is already there
+                    return;
+                }
+                Entry[] next = new Entry[Math.min(top.length + 1, size)];
+                System.arraycopy(top, 0, next, 0, at);
+                next[at] = entry;
+                System.arraycopy(top, at, next, at + 1, next.length - at - 1);
+                if (stripes.compareAndSet(stripe, top, next)) {
+                    version.incrementAndGet();
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Returns the fastest escapes, merging the stripes if one changed since they
+         * were last merged.
+         */
+        List<Entry> top() {
+            Ranking current = ranking;
+            // read the version before the stripes, so the ranking has at least
+            // everything up to that version
+            long now = version.get();
+            if (current.version == now) {
+                return current.entries;
+            }
+            List<Entry> merged = new ArrayList<>();
+            for (int i = 0; i < stripeCount; i++) {
+                merged.addAll(Arrays.asList(stripes.get(i)));
+            }
+            Collections.sort(merged);
+            List<Entry> top = Collections.unmodifiableList(new ArrayList<>(merged.subList(0,
+                    Math.min(size, merged.size()))));
+            ranking = new Ranking(now, top);
+            return top;
+        }
+    }
+
+    /**
+     * The fastest escapes of a room at some version of its stripes.
+     */
+    private static class Ranking {
+        private long version;
+        private List<Entry> entries;
+
+        Ranking(long version, List<Entry> entries) {
+            this.version = version;
+            this.entries = entries;
+        }
+    }
+
+    /**
+     * Creates an empty leaderboard that keeps the given number of escapes per
+     * room.
+     *
+     * @param size the number of escapes kept per room
+     */
+    public Leaderboard(int size) {
+        if (size < 1) {
+            throw new IllegalArgumentException("A leaderboard must keep at least one escape per room");
+        }
+        this.size = size;
+        this.stripeCount = Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors()) * 2 - 1);
+    }
+
+    /**
+     * Returns the leaderboard shared by every session in this JVM.
+     *
+     * @return the shared leaderboard
+     */
+    public static Leaderboard global() {
+        return GLOBAL;
+    }
+
+    private Board board(String room) {
+        Board board = boards.get(room);
+        return board != null ? board : boards.computeIfAbsent(room, r -> new Board());
+    }
+
+    /**
+     * Records a player escaping a room.
+     *
+     * @param room   the name of the room
+     * @param turns  the number of turns the player took
+     * @param millis how long the player took in milliseconds
+     */
+    public void recordEscape(String room, int turns, long millis) {
+        Board board = board(room);
+        board.escapeTurns.computeIfAbsent(turns, t -> new LongAdder()).increment();
+        board.escapeTime[63 - Long.numberOfLeadingZeros(Math.max(millis, 1))].increment();
+        board.offer(ThreadLocalRandom.current().nextInt(stripeCount),
+                new Entry(turns, millis, System.currentTimeMillis()));
+    }
+
+    /**
+     * Records a player failing a room.
+     *
+     * @param room  the name of the room
+     * @param turns the number of turns the player took
+     */
+    public void recordFailure(String room, int turns) {
+        board(room).failTurns.computeIfAbsent(turns, t -> new LongAdder()).increment();
+    }
+
+    /**
+     * Returns the names of the rooms that have results, in alphabetical order.
+     *
+     * @return the names of the rooms that have results
+     */
+    public List<String> getRooms() {
+        List<String> rooms = new ArrayList<>(boards.keySet());
+        Collections.sort(rooms);
+        return rooms;
+    }
+
+    /**
+     * Returns the fastest escapes from a room, fastest first. The list cannot be
+     * changed, and the same list is returned until another fast escape is
+     * recorded.
+     *
+     * @param room the name of the room
+     * @return the fastest escapes from the room, fastest first
+     */
+    public List<Entry> getTop(String room) {
+        Board board = boards.get(room);
+        return board == null ? Collections.emptyList() : board.top();
+    }
+
+    /**
+     * Returns the number of players who escaped a room.
+     *
+     * @param room the name of the room
+     * @return the number of players who escaped the room
+     */
+    public long getEscapes(String room) {
+        Board board = boards.get(room);
+        return board == null ? 0 : sum(board.escapeTurns.values());
+    }
+
+    /**
+     * Returns the number of players who failed a room.
+     *
+     * @param room the name of the room
+     * @return the number of players who failed the room
+     */
+    public long getFailures(String room) {
+        Board board = boards.get(room);
+        return board == null ? 0 : sum(board.failTurns.values());
+    }
+
+    /**
+     * Returns the given percentile of the number of turns players took to escape
+     * a room.
+     *
+     * @param room       the name of the room
+     * @param percentile the percentile, between 0 and 100
+     * @return the percentile, or 0 if no one has escaped the room
+     */
+    public int getTurnPercentile(String room, double percentile) {
+        Board board = boards.get(room);
+        if (board == null) {
+            return 0;
+        }
+        Map<Integer, Long> counts = new TreeMap<>();
+        board.escapeTurns.forEach((turns, count) -> counts.put(turns, count.sum()));
+        long rank = rank(sum(board.escapeTurns.values()), percentile);
+        long seen = 0;
+        for (Map.Entry<Integer, Long> count : counts.entrySet()) {
+            seen += count.getValue();
+            if (seen >= rank && seen > 0) {
+                return count.getKey();
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Returns an upper bound for the given percentile of the time players took to
+     * escape a room. The times are kept in buckets that double in size, so the
+     * bound is at most twice the real percentile.
+     *
+     * @param room       the name of the room
+     * @param percentile the percentile, between 0 and 100
+     * @return an upper bound in milliseconds, or 0 if no one has escaped the room
+     */
+    public long getTimePercentile(String room, double percentile) {
+        Board board = boards.get(room);
+        if (board == null) {
+            return 0;
+        }
+        long[] counts = new long[board.escapeTime.length];
+        long count = 0;
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = board.escapeTime[i].sum();
+            count += counts[i];
+        }
+        long rank = rank(count, percentile);
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank && seen > 0) {
+                return i == 62 ? Long.MAX_VALUE : (1L << (i + 1)) - 1;
+            }
+        }
+        return 0;
+    }
+
+    private static long rank(long count, double percentile) {
+        return (long) Math.ceil(count * percentile / 100);
+    }
+
+    private static long sum(Iterable<LongAdder> counters) {
+        long sum = 0;
+        for (LongAdder counter : counters) {
+            sum += counter.sum();
+        }
+        return sum;
+    }
+
+    /**
+     * Returns the leaderboard of every room as text, ready to be printed.
+     *
+     * @return the leaderboard as text
+     */
+    public String getReport() {
+        StringBuilder report = new StringBuilder();
+        for (String room : getRooms()) {
+            report.append("== ").append(room).append(" ==\n");
+            report.append(getEscapes(room)).append(" escaped, ").append(getFailures(room)).append(" failed\n");
+            if (getEscapes(room) > 0) {
+                report.append("turns: median ").append(getTurnPercentile(room, 50)).append(", p90 ")
+                        .append(getTurnPercentile(room, 90)).append(", p99 ").append(getTurnPercentile(room, 99))
+                        .append('\n');
+                report.append("time: median <= ").append(formatMillis(getTimePercentile(room, 50)))
+                        .append(", p90 <= ").append(formatMillis(getTimePercentile(room, 90))).append('\n');
+            }
+            List<Entry> top = getTop(room);
+            for (int i = 0; i < top.size(); i++) {
+                report.append(String.format("%3d. %s%n", i + 1, top.get(i)));
+            }
+        }
+        return report.toString();
+    }
+
+    private static String formatMillis(long millis) {
+        return String.format("%d:%02d.%d", millis / 60000, millis / 1000 % 60, millis / 100 % 10);
+    }
+
+    /**
+     * Saves the leaderboard to the given file, replacing it. The file is written
+     * next to the old one first and then moved over it, so a crash while saving
+     * leaves the old file as it was.
+     *
+     * @param file the file to save to
+     * @throws IOException if the file cannot be written
+     */
+    public void save(Path file) throws IOException {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            List<String> rooms = getRooms();
+            out.writeInt(rooms.size());
+            for (String room : rooms) {
+                Board board = boards.get(room);
+                out.writeUTF(room);
+                writeCounts(out, board.escapeTurns);
+                writeCounts(out, board.failTurns);
+                int buckets = 0;
+                for (LongAdder bucket : board.escapeTime) {
+                    buckets += bucket.sum() > 0 ? 1 : 0;
+                }
+                out.writeByte(buckets);
+                for (int i = 0; i < board.escapeTime.length; i++) {
+                    long count = board.escapeTime[i].sum();
+                    if (count > 0) {
+                        out.writeByte(i);
+                        out.writeLong(count);
+                    }
+                }
+                List<Entry> top = board.top();
+                out.writeShort(top.size());
+                for (Entry entry : top) {
+                    out.writeInt(entry.turns);
+                    out.writeLong(entry.millis);
+                    out.writeLong(entry.finishedAt);
+                }
+            }
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void writeCounts(DataOutputStream out, Map<Integer, LongAdder> counts) throws IOException {
+        Map<Integer, Long> sums = new TreeMap<>();
+        counts.forEach((turns, count) -> sums.put(turns, count.sum()));
+        out.writeInt(sums.size());
+        for (Map.Entry<Integer, Long> count : sums.entrySet()) {
+            out.writeInt(count.getKey());
+            out.writeLong(count.getValue());
+        }
+    }
+
+    /**
+     * Adds the results saved in the given file to this leaderboard.
+     *
+     * @param file the file saved by save
+     * @throws IOException              if the file cannot be read
+     * @throws IllegalArgumentException if the file is not a saved leaderboard
+     */
+    public void load(Path file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readByte() != VERSION) {
+                throw new IllegalArgumentException(file + " is not a saved leaderboard");
+            }
+            for (int rooms = in.readInt(); rooms > 0; rooms--) {
+                Board board = board(in.readUTF());
+                readCounts(in, board.escapeTurns);
+                readCounts(in, board.failTurns);
+                for (int buckets = in.readUnsignedByte(); buckets > 0; buckets--) {
+                    int bucket = in.readUnsignedByte();
+                    if (bucket >= board.escapeTime.length) {
+                        throw new IllegalArgumentException(file + " is not a saved leaderboard");
+                    }
+                    board.escapeTime[bucket].add(in.readLong());
+                }
+                for (int entries = in.readUnsignedShort(); entries > 0; entries--) {
+                    board.offer(0, new Entry(in.readInt(), in.readLong(), in.readLong()));
+                }
+            }
+        }
+    }
+
+    private static void readCounts(DataInputStream in, Map<Integer, LongAdder> counts) throws IOException {
+        for (int n = in.readInt(); n > 0; n--) {
+            counts.computeIfAbsent(in.readInt(), t -> new LongAdder()).add(in.readLong());
+        }
+    }
+
+    /**
+     * Saves the leaderboard to the given file every period, on a daemon thread,
+     * until the returned future is cancelled.
+     *
+     * @param file   the file to save to
+     * @param period the time between saves
+     * @param unit   the unit of the period
+     * @return the future to cancel to stop saving
+     */
+    public ScheduledFuture<?> saveEvery(Path file, long period, TimeUnit unit) {
+        ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "leaderboard-saves");
+            thread.setDaemon(true);
+            return thread;
+        });
+        return timer.scheduleAtFixedRate(() -> {
+            try {
+                save(file);
+            } catch (IOException e) {
+                System.err.println("Cannot save the leaderboard to " + file + ": " + e);
+            }
+        }, period, period, unit);
+    }
+
+    /**
+     * Prints a saved leaderboard.
+     *
+     * Usage: java Leaderboard leaderboard-file
+     */
+    public static void main(String[] args) throws IOException {
+        Leaderboard leaderboard = new Leaderboard(DEFAULT_SIZE);
+        leaderboard.load(Paths.get(args[0]));
+        System.out.print(leaderboard.getReport());
+    }
+}
@@ -0,0 +1,277 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A set of names stored in a prefix tree (a trie), so that the names starting
+ * with what a player typed can be found without looking at the other names.
+ *
+ * Each node is one character of a name, and knows how many names pass through
+ * it. Finding the node of a prefix takes time proportional to the length of the
+ * prefix, no matter how many names there are, and the count on that node tells
+ * whether the prefix is unique. Adding and removing a name takes time
+ * proportional to its length.
+ *
+ * The trie can also find the name closest to a misspelled one (see suggest),
+ * by working out the edit distance to every name at once while walking the
+ * tree and skipping every branch that is already too far away.
+ */
+public class NameTrie {
+    private static final char[] NO_KEYS = new char[0];
+    private static final Node[] NO_CHILDREN = new Node[0];
+
+    /** the node of the empty prefix */
+    private Node root = new Node();
+
+    /**
+     * One character of one or more names.
+     */
+    private static class Node {
+        /** the characters of the children, sorted */
+        private char[] keys = NO_KEYS;
+
+        /** the children, in the same order as their keys */
+        private Node[] children = NO_CHILDREN;
+
+        /** the number of children */
+        private int size;
+
+        /** the number of names that start with this node's prefix */
+        private int count;
+
+        /** the name that ends at this node, or null */
+        private String name;
+
+        private Node child(char key) {
+            int at = Arrays.binarySearch(keys, 0, size, key);
+            return at < 0 ? null : children[at];
+        }
+
+        private Node addChild(char key) {
+            int at = Arrays.binarySearch(keys, 0, size, key);
+            if (at >= 0) {
+                return children[at];
+            }
+            at = -at - 1;
+            if (size == keys.length) {
+                keys = Arrays.copyOf(keys, Math.max(2, size * 2));
+                children = Arrays.copyOf(children, keys.length);
+            }
+            System.arraycopy(keys, at, keys, at + 1, size - at);
+            System.arraycopy(children, at, children, at + 1, size - at);
+            keys[at] = key;
+            children[at] = new Node();
+            size++;
+            return children[at];
+        }
+
+        private void removeChild(char key) {
+            int at = Arrays.binarySearch(keys, 0, size, key);
+            System.arraycopy(keys, at + 1, keys, at, size - at - 1);
+            System.arraycopy(children, at + 1, children, at, size - at - 1);
+            size--;
+            children[size] = null;
+        }
+    }
+
+    /**
+     * Returns the node of the given prefix, or null if no name starts with it.
+     */
+    private Node find(String prefix) {
+        Node node = root;
+        for (int i = 0; i < prefix.length() && node != null; i++) {
+            node = node.child(prefix.charAt(i));
+        }
+        return node != null && node.count > 0 ? node : null;
+    }
+
+    /**
+     * Adds a name.
+     *
+     * @param name the name to add
+     * @return true if the name was added, and false if it was already there
+     */
+    public boolean add(String name) {
+        if (contains(name)) {
+            return false;
+        }
+        Node node = root;
+        node.count++;
+        for (int i = 0; i < name.length(); i++) {
+            node = node.addChild(name.charAt(i));
+            node.count++;
+        }
+        node.name = name;
+        return true;
+    }
+
+    /**
+     * Removes a name.
+     *
+     * @param name the name to remove
+     * @return true if the name was removed, and false if it was not there
+     */
+    public boolean remove(String name) {
+        if (!contains(name)) {
+            return false;
+        }
+        Node node = root;
+        node.count--;
+        for (int i = 0; i < name.length(); i++) {
+            Node child = node.child(name.charAt(i));
+            if (--child.count == 0) {
+                // no other name goes this way, so drop the whole branch
+                node.removeChild(name.charAt(i));
+                return true;
+            }
+            node = child;
+        }
+        node.name = null;
+        return true;
+    }
+
+    /**
+     * Returns whether the trie contains the name.
+     *
+     * @param name the name
+     * @return true if the trie contains the name
+     */
+    public boolean contains(String name) {
+        Node node = find(name);
+        return node != null && node.name != null;
+    }
+
+    /**
+     * Returns the number of names in the trie.
+     *
+     * @return the number of names
+     */
+    public int size() {
+        return root.count;
+    }
+
+    /**
+     * Returns the name itself if it is in the trie, or otherwise the only name
+     * that starts with it.
+     *
+     * @param prefix a name or the start of one
+     * @return the name, or null if no name or more than one name starts with the
+     *         prefix
+     */
+    public String resolve(String prefix) {
+        Node node = find(prefix);
+        if (node == null || node.name == null && node.count > 1) {
+            return null;
+        }
+        while (node.name == null) {
+            node = node.children[0];
+        }
+        return node.name;
+    }
+
+    /**
+     * Returns the longest text that every name starting with the prefix starts
+     * with, which is what pressing tab completes the prefix to.
+     *
+     * @param prefix the start of a name
+     * @return the completed prefix, or null if no name starts with the prefix
+     */
+    public String complete(String prefix) {
+        Node node = find(prefix);
+        if (node == null) {
+            return null;
+        }
+        StringBuilder completed = new StringBuilder(prefix);
+        while (node.name == null && node.size == 1) {
+            completed.append(node.keys[0]);
+            node = node.children[0];
+        }
+        return completed.toString();
+    }
+
+    /**
+     * Returns the names that start with the prefix in alphabetical order, up to
+     * the given number of them.
+     *
+     * @param prefix the start of a name
+     * @param limit  the most names to return
+     * @return the names that start with the prefix
+     */
+    public List<String> startingWith(String prefix, int limit) {
+        List<String> names = new ArrayList<>();
+        Node node = find(prefix);
+        if (node != null) {
+            collect(node, names, limit);
+        }
+        return names;
+    }
+
+    private static void collect(Node node, List<String> names, int limit) {
+        if (node.name != null) {
+            names.add(node.name);
+        }
+        for (int i = 0; i < node.size && names.size() < limit; i++) {
+            collect(node.children[i], names, limit);
+        }
+    }
+
+    /**
+     * The closest name found so far by suggest.
+     */
+    private static class Suggestion {
+        private String name;
+        private int distance;
+    }
+
+    /**
+     * Returns the name with the smallest edit distance to the given word (the
+     * number of characters that have to be added, removed or changed to turn one
+     * into the other), if it is at most maxDistance. Of names that are equally
+     * close, the first in alphabetical order is returned.
+     *
+     * @param word        the word, for example a misspelled name
+     * @param maxDistance the largest edit distance allowed
+     * @return the closest name, or null if every name is further away
+     */
+    public String suggest(String word, int maxDistance) {
+        int[] row = new int[word.length() + 1];
+        for (int i = 0; i < row.length; i++) {
+            row[i] = i;
+        }
+        Suggestion best = new Suggestion();
+        best.distance = maxDistance + 1;
+        if (root.name != null && row[word.length()] < best.distance) {
+            best.name = root.name;
+            best.distance = row[word.length()];
+        }
+        for (int i = 0; i < root.size; i++) {
+            suggest(root.children[i], root.keys[i], word, row, best);
+        }
+        return best.name;
+    }
+
+    /**
+     * Works out the next row of the edit distance table for the node's character
+     * and goes on to its children if some name below it could still be closer
+     * than the best one so far.
+     */
+    private static void suggest(Node node, char key, String word, int[] previous, Suggestion best) {
+        int[] row = new int[previous.length];
+        row[0] = previous[0] + 1;
+        int smallest = row[0];
+        for (int i = 1; i < row.length; i++) {
+            int change = previous[i - 1] + (word.charAt(i - 1) == key ? 0 : 1);
+            row[i] = Math.min(change, Math.min(row[i - 1], previous[i]) + 1);
+            smallest = Math.min(smallest, row[i]);
+        }
+        if (node.name != null && row[row.length - 1] < best.distance) {
+            best.name = node.name;
+            best.distance = row[row.length - 1];
+        }
+        if (smallest < best.distance) {
+            for (int i = 0; i < node.size; i++) {
+                suggest(node.children[i], node.keys[i], word, row, best);
+            }
+        }
+    }
+}
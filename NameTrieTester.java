@@ -0,0 +1,196 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Random;
+import java.util.TreeSet;
+
+/**
+ * Checks NameTrie against a brute-force sorted set and measures item name lookups
+ * in a large room.
+ *
+ * The check runs random operations on a trie and a TreeSet of the same names.
+ * The names are short and made of three letters, so prefixes are shared all the
+ * time. After every add or remove the sizes must agree, and every lookup
+ * (contains, startingWith, resolve, complete and suggest) must return what
+ * working it out from the whole set returns. The suggestion is compared with
+ * the edit distance to every name.
+ *
+ * Then a room is filled with items and the time to resolve a prefix, suggest a
+ * name for a typo, and remove and add an item is measured.
+ *
+ * Usage: java NameTrieTester [operations] [items] [seed]
+ *
+ * The defaults are 200000 operations, 50000 items and seed 5. Exits with status
+ * 1 if the trie disagrees with the set.
+ */
+public class NameTrieTester {
+    /** the largest edit distance suggest is asked for */
+    private static final int MAX_DISTANCE = 2;
+
+    /**
+     * Runs random operations on a trie and a set and returns a description of
+     * the first difference, or null if there was none.
+     */
+    private static String check(int operations, long seed) {
+        Random random = new Random(seed);
+        NameTrie trie = new NameTrie();
+        TreeSet<String> names = new TreeSet<>();
+        for (int i = 0; i < operations; i++) {
+            StringBuilder word = new StringBuilder();
+            for (int n = random.nextInt(6); n > 0; n--) {
+                word.append((char) ('a' + random.nextInt(3)));
+            }
+            String name = word.toString();
+            switch (random.nextInt(4)) {
+            case 0:
+                if (trie.add(name) != names.add(name)) {
+                    return "add(\"" + name + "\")";
+                }
+                break;
+            case 1:
+                if (trie.remove(name) != names.remove(name)) {
+                    return "remove(\"" + name + "\")";
+                }
+                break;
+            default:
+                String difference = compareLookups(trie, names, name);
+                if (difference != null) {
+                    return difference;
+                }
+            }
+            if (trie.size() != names.size()) {
+                return "size() after " + (i + 1) + " operations";
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Compares every lookup of the prefix in the trie with the set, and returns the
+     * name of the first lookup that differs, or null if none does.
+     */
+    private static String compareLookups(NameTrie trie, TreeSet<String> names, String prefix) {
+        List<String> starting = new ArrayList<>();
+        for (String name : names.tailSet(prefix)) {
+            if (!name.startsWith(prefix)) {
+                break;
+            }
+            starting.add(name);
+        }
+        if (trie.contains(prefix) != names.contains(prefix)) {
+            return "contains(\"" + prefix + "\")";
+        }
+        if (!trie.startingWith(prefix, Integer.MAX_VALUE).equals(starting)) {
+            return "startingWith(\"" + prefix + "\")";
+        }
+        String resolved = names.contains(prefix) ? prefix : starting.size() == 1 ? starting.get(0) : null;
+        if (!Objects.equals(trie.resolve(prefix), resolved)) {
+            return "resolve(\"" + prefix + "\")";
+        }
+        String completed = null;
+        for (String name : starting) {
+            completed = completed == null ? name : commonPrefix(completed, name);
+        }
+        if (!Objects.equals(trie.complete(prefix), completed)) {
+            return "complete(\"" + prefix + "\")";
+        }
+        // names are in alphabetical order, so the first of the closest is kept
+        String closest = null;
+        int closestDistance = MAX_DISTANCE + 1;
+        for (String name : names) {
+            int distance = editDistance(prefix, name);
+            if (distance < closestDistance) {
+                closest = name;
+                closestDistance = distance;
+            }
+        }
+        if (!Objects.equals(trie.suggest(prefix, MAX_DISTANCE), closest)) {
+            return "suggest(\"" + prefix + "\", " + MAX_DISTANCE + ")";
+        }
+        return null;
+    }
+
+    private static String commonPrefix(String a, String b) {
+        int length = 0;
+        while (length < a.length() && length < b.length() && a.charAt(length) == b.charAt(length)) {
+            length++;
+        }
+        return a.substring(0, length);
+    }
+
+    /**
+     * Returns the number of characters that have to be added, removed or changed
+     * to turn one word into the other.
+     */
+    private static int editDistance(String a, String b) {
+        int[][] distance = new int[a.length() + 1][b.length() + 1];
+        for (int i = 0; i <= a.length(); i++) {
+            distance[i][0] = i;
+        }
+        for (int j = 0; j <= b.length(); j++) {
+            distance[0][j] = j;
+        }
+        for (int i = 1; i <= a.length(); i++) {
+            for (int j = 1; j <= b.length(); j++) {
+                int change = distance[i - 1][j - 1] + (a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1);
+                distance[i][j] = Math.min(change, Math.min(distance[i - 1][j], distance[i][j - 1]) + 1);
+            }
+        }
+        return distance[a.length()][b.length()];
+    }
+
+    /**
+     * Fills a room with the given number of items and prints how long name lookups
+     * take.
+     */
+    private static void measure(int size) {
+        Room room = WizardLabDriver.createLab();
+        List<Item> items = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            items.add(new UselessItem("widget_" + i + "_thing", "a widget"));
+        }
+        room.addAll(items);
+        long start = System.nanoTime();
+        // the first lookup that misses builds the trie
+        room.resolveItem("widget_0_th");
+        long built = System.nanoTime();
+        int lookups = 100000;
+        for (int i = 0; i < lookups; i++) {
+            room.resolveItem("widget_" + (i % size) + "_th");
+        }
+        long resolved = System.nanoTime();
+        int typos = 10000;
+        for (int i = 0; i < typos; i++) {
+            room.suggestItemName("widgte_" + (i % size) + "_thing");
+        }
+        long suggested = System.nanoTime();
+        int moves = Math.min(size, 10000);
+        for (int i = 0; i < moves; i++) {
+            room.remove(items.get(i));
+            room.add(items.get(i));
+        }
+        long moved = System.nanoTime();
+        System.out.printf("%d items: building the trie %.1f ms, resolve %.2f us, suggest %.2f us, "
+                + "remove and add %.2f us%n", size, (built - start) / 1e6, (resolved - built) / 1e3 / lookups,
+                (suggested - resolved) / 1e3 / typos, (moved - suggested) / 1e3 / moves);
+    }
+
+    public static void main(String[] args) {
+        int operations = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        int size = args.length > 1 ? Integer.parseInt(args[1]) : 50000;
+        long seed = args.length > 2 ? Long.parseLong(args[2]) : 5;
+
+        String difference = check(operations, seed);
+        if (difference != null) {
+            System.out.println("FAILURE: " + difference + " differs from the brute-force set (seed " + seed + ")");
+        } else {
+            System.out.println(operations + " random operations agree with the brute-force set (seed " + seed + ")");
+        }
+        // the first round warms up the JIT
+        measure(size);
+        measure(size);
+        if (difference != null) {
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,31 @@
+/**
+ * Where a GameOutput sends the text it has buffered. A sink receives each
+ * turn's output in a single write followed by a flush.
+ */
+public interface OutputSink {
+    /** A sink that discards everything written to it */
+    public static final OutputSink NULL = text -> {
+    };
+
+    /**
+     * Writes the text to the sink.
+     * 
+     * @param text the text to write
+     */
+    public void write(CharSequence text);
+
+    /**
+     * Flushes anything the sink has buffered to its destination.
+     */
+    public default void flush() {
+    }
+
+    /**
+     * Returns a sink that writes to System.out.
+     * 
+     * @return a sink that writes to System.out
+     */
+    public static OutputSink console() {
+        return new StreamSink(System.out);
+    }
+}
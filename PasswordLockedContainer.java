@@ -1,5 +1,7 @@
-
 public class PasswordLockedContainer extends Container{
+    /** the help headings password locked containers are listed under */
+    private static final String[] HELP_GROUPS = { "You can open or close:", "You can attempt to unlock:" };
+
     /** the password to unlock the container */
     private String password;
 
@@ -30,13 +32,37 @@ public class PasswordLockedContainer extends Container{
         this.password = password;
     }
 
+    /**
+     * Creates a password locked container whose description is already in
+     * TextStore.shared() (see Item(String, int)).
+     * 
+     * @param name        the name of the container
+     * @param description the id of the description in TextStore.shared()
+     * @param isOpen      whether the container is open or not
+     * @param isLocked    whether the container is locked or not
+     * @param password    the password to unlock the container
+     */
+    public PasswordLockedContainer(String name, int description, boolean isOpen, boolean isLocked, String password) {
+        super(name, description, isOpen, isLocked);
+        this.password = password;
+    }
+
+    /**
+     * Returns the password to unlock the container.
+     * 
+     * @return the password to unlock the container
+     */
+    String getPassword() {
+        return password;
+    }
+
     /**
      * Called when the password is entered successfully. Prints a message reporting
      * the success and then unlocks the container. This could be overridden by
      * subclasses to customize the message and/or add additional effects.
      */
     protected void onPasswordSuccess() {
-        System.out.println("You have unlocked the " + getName());
+        getOutput().println("You have unlocked the " + getName());
         unlock();
     }
 
@@ -46,7 +72,7 @@ public class PasswordLockedContainer extends Container{
      * and/or add additional effects.
      */
     protected void onPasswordFailure() {
-        System.out.println("You failed to unlock the " + getName());
+        getOutput().println("You failed to unlock the " + getName());
     }
 
     /**
@@ -59,19 +85,28 @@ public class PasswordLockedContainer extends Container{
         return "password: ";
     }
 
+    /**
+     * Checks the password the user typed after the unlock command.
+     * 
+     * @param line the line the user typed
+     */
+    private void checkPassword(String line) {
+        String pw = line.trim();
+        getRoom().getMetrics().recordPasswordAttempt(getName(), pw.equals(password));
+        if (pw.equals(password)) {
+            onPasswordSuccess();
+        } else {
+            onPasswordFailure();
+        }
+    }
+
     @Override
     public boolean execute(String command) {
         if (command.equals("unlock " + getName())) {
             if (isLocked()) {
-                System.out.print(passwordPrompt());
-                String pw = EscapeApp.IN.nextLine().trim();
-                if (pw.equals(password)) {
-                    onPasswordSuccess();
-                } else {
-                    onPasswordFailure();
-                }
+                getRoom().getApp().awaitInput(this::checkPassword, passwordPrompt());
             } else {
-                System.out.println("The " + getName() + " is not locked.");
+                getOutput().println("The " + getName() + " is not locked.");
             }
             return true;
         }
@@ -81,7 +116,17 @@ public class PasswordLockedContainer extends Container{
     @Override
     public void printHelp() {
         super.printHelp();
-        System.out.println("You can attempt to unlock the " + getName());
+        getOutput().println("You can attempt to unlock the " + getName());
+    }
+
+    @Override
+    public String[] getHelpGroups() {
+        return HELP_GROUPS;
+    }
+
+    @Override
+    public String[] getRoutes() {
+        return new String[] { "open " + getName(), "close " + getName(), "unlock " + getName() };
     }
 
 }
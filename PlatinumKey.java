@@ -8,9 +8,20 @@ public class PlatinumKey extends Item{
         super(name, description);
     }
 
+    /**
+     * Creates a key whose description is already in TextStore.shared() (see
+     * Item(String, int)).
+     * 
+     * @param name        the name of the key
+     * @param description the id of the description in TextStore.shared()
+     */
+    public PlatinumKey(String name, int description) {
+        super(name, description);
+    }
+
     @Override
     public void use() {
-        System.out.println("YAY! You have escaped your whole life in prison. This appears to be the key to the door.");
+        getOutput().println("YAY! You have escaped your whole life in prison. This appears to be the key to the door.");
         //super.getRoom().add(u);
     }
 
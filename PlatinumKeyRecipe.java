@@ -9,7 +9,7 @@ public class PlatinumKeyRecipe extends Recipe {
     // combine all the numbers
     @Override
     public void combineInRoom(Room r) {
-        System.out.println("Success! You have made plantinum key.");
+        r.getOutput().println("Success! You have made plantinum key.");
         PlatinumKey key = new PlatinumKey("platinum_key", "a platinum_key");
         r.add(key);
         removeIngredientsFromRoom(r);
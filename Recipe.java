@@ -1,15 +1,23 @@
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 public abstract class Recipe {
-    /** The ingredients required for this recipe */
+    /** The ingredients required for this recipe, which never change */
     private List<String> ingredients;
 
     /** Whether or not the order of the items listed in the recipe matters */
     private boolean orderMatters;
 
+    /** The ingredients required for this recipe as a set */
+    private Set<String> ingredientSet;
+
+    /** The key rooms index this recipe under (see keyOf) */
+    private String key;
+
     /**
      * Creates a recipe with the given orderMatters and list of ingredients. Recipes
      * must contain at least two ingredients and each ingredient must be unique.
@@ -23,12 +31,46 @@ public abstract class Recipe {
         if (ingredients.length < 2) {
             throw new IllegalArgumentException("Recipes must have at least two ingredients");
         }
-        this.ingredients = new ArrayList<>(Arrays.asList(ingredients));
-        if (new HashSet<String>(this.ingredients).size() < this.ingredients.size()) {
+        this.ingredients = Collections.unmodifiableList(Arrays.asList(ingredients.clone()));
+        this.ingredientSet = new HashSet<>(this.ingredients);
+        if (ingredientSet.size() < this.ingredients.size()) {
             throw new IllegalArgumentException(
                     "Each item name in a recipe must be unique. Ingredients: " + this.ingredients);
         }
         this.orderMatters = orderMatters;
+        this.key = keyOf(this.ingredients, orderMatters);
+    }
+
+    /**
+     * Returns the key for the given item names. If order matters, the key is made
+     * from the names in the order given; otherwise it is made from the names in
+     * sorted order so that every ordering of the same names has the same key. A
+     * list of items matches a recipe only if its key equals the recipe's key.
+     * 
+     * @param names        the item names
+     * @param orderMatters whether the order of the names matters
+     * @return the key for the given item names
+     */
+    public static String keyOf(List<String> names, boolean orderMatters) {
+        if (!orderMatters) {
+            names = new ArrayList<>(names);
+            names.sort(null);
+        }
+        StringBuilder sb = new StringBuilder(orderMatters ? "ordered:" : "unordered:");
+        for (String name : names) {
+            // item names cannot contain white space, so a space separates them safely
+            sb.append(name).append(' ');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Returns the key rooms index this recipe under (see keyOf).
+     * 
+     * @return the key rooms index this recipe under
+     */
+    public String getKey() {
+        return key;
     }
 
     /**
@@ -43,24 +85,16 @@ public abstract class Recipe {
      *         order if it matters) and false otherwise
      */
     public boolean matchesItems(List<Item> items) {
-        boolean matches = true;
-        for(int i = 0; i < items.size(); i++){
-            boolean match = false;
-            if(orderMatters){
-                for (int j = 0; j < ingredients.size(); j++) {
-                    if (ingredients.get(i).equals(items.get(i).getName())) {
-                        match = true;
-                    }
-                }
-            } else {
-                match = true;
-                if (!ingredients.get(i).equals(items.get(i).getName())) {
-                    matches = false;
-                }
+        if (items.size() != ingredients.size()) {
+            return false;
+        }
+        for (int i = 0; i < items.size(); i++) {
+            String name = items.get(i).getName();
+            if (orderMatters ? !ingredients.get(i).equals(name) : !ingredientSet.contains(name)) {
+                return false;
             }
-            matches = matches && match;
         }
-        return matches;
+        return true;
     }
 
     /**
@@ -76,12 +110,13 @@ public abstract class Recipe {
     }
 
     /**
-     * Returns a list of the ingredients in this recipe.
+     * Returns a read-only list of the ingredients in this recipe. The ingredients
+     * never change, so the same list is returned every time instead of a copy.
      * 
-     * @return a list of the ingredients in this recipe.
+     * @return a read-only list of the ingredients in this recipe.
      */
     protected List<String> getIngredients() {
-        return new ArrayList<>(ingredients);
+        return ingredients;
     }
 
     /**
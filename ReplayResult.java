@@ -0,0 +1,100 @@
+/**
+ * The result of replaying a script against a room (see ReplayRunner).
+ */
+public class ReplayResult {
+    /** How a replayed game ended */
+    public enum Outcome {
+        /** the room was escaped */
+        ESCAPED,
+        /** the room was failed */
+        FAILED,
+        /** the script ran out before the room was escaped or failed */
+        INCOMPLETE,
+        /** the game threw an exception */
+        CRASHED
+    }
+
+    /** how the game ended */
+    private Outcome outcome;
+
+    /** the number of commands that were handled */
+    private int turns;
+
+    /** the checksum of everything the game printed */
+    private long checksum;
+
+    /** how long the replay took in nanoseconds */
+    private long elapsedNanos;
+
+    /** the exception the game threw, or null if it did not crash */
+    private RuntimeException error;
+
+    /**
+     * Creates a result.
+     * 
+     * @param outcome      how the game ended
+     * @param turns        the number of commands that were handled
+     * @param checksum     the checksum of everything the game printed
+     * @param elapsedNanos how long the replay took in nanoseconds
+     * @param error        the exception the game threw, or null if it did not crash
+     */
+    public ReplayResult(Outcome outcome, int turns, long checksum, long elapsedNanos, RuntimeException error) {
+        this.outcome = outcome;
+        this.turns = turns;
+        this.checksum = checksum;
+        this.elapsedNanos = elapsedNanos;
+        this.error = error;
+    }
+
+    /**
+     * Returns how the game ended.
+     * 
+     * @return how the game ended
+     */
+    public Outcome getOutcome() {
+        return outcome;
+    }
+
+    /**
+     * Returns the number of commands that were handled, which is the number of
+     * turns used in rooms like WizardsLab.
+     * 
+     * @return the number of commands that were handled
+     */
+    public int getTurns() {
+        return turns;
+    }
+
+    /**
+     * Returns the CRC-32 checksum of everything the game printed.
+     * 
+     * @return the checksum of everything the game printed
+     */
+    public long getChecksum() {
+        return checksum;
+    }
+
+    /**
+     * Returns how long the replay took in nanoseconds.
+     * 
+     * @return how long the replay took in nanoseconds
+     */
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    /**
+     * Returns the exception the game threw, or null if it did not crash.
+     * 
+     * @return the exception the game threw, or null if it did not crash
+     */
+    public RuntimeException getError() {
+        return error;
+    }
+
+    @Override
+    public String toString() {
+        return outcome + " in " + turns + " turns, output checksum " + Long.toHexString(checksum)
+                + (error != null ? ", " + error : "");
+    }
+}
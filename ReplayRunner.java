@@ -0,0 +1,187 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Scanner;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Plays scripted games without a terminal. A script is the list of lines a
+ * player would type, including the passwords typed after an unlock command.
+ * Each replay plays the script against a fresh room and reports how the game
+ * ended, how many turns it took and a checksum of everything it printed, so
+ * many replays can be run in parallel for content regression and load tests.
+ */
+public class ReplayRunner {
+    /** the lines that escape the prisoner's escape room (see GameFile.txt) */
+    public static final List<String> WIZARDS_LAB_WALKTHROUGH = List.of("unlock cookbook", "pineapple",
+            "open cookbook", "open pizza_box", "open pizza", "unlock leather_bag", "627", "open leather_bag",
+            "unlock purse", "0410", "open purse", "open expired_bread", "unlock blackboard", "091021",
+            "open blackboard", "unlock labeled_brick_wall", "4123", "open labeled_brick_wall", "say 21",
+            "combine nine_paper plus_paper ten_paper equal_paper twenty_one_paper");
+
+    /** creates a fresh room for each replay */
+    private Supplier<? extends Room> rooms;
+
+    /** the metrics the replays record into, kept apart from real games */
+    private GameMetrics metrics;
+
+    /** the leaderboard the replays record into, kept apart from real games */
+    private Leaderboard leaderboard;
+
+    /**
+     * Creates a runner that replays scripts against rooms created by the given
+     * supplier, with its own metrics and leaderboard.
+     *
+     * @param rooms creates a fresh room for each replay
+     */
+    public ReplayRunner(Supplier<? extends Room> rooms) {
+        this(rooms, new GameMetrics(), new Leaderboard(Leaderboard.DEFAULT_SIZE));
+    }
+
+    /**
+     * Creates a runner that replays scripts against rooms created by the given
+     * supplier and records into the given metrics and leaderboard.
+     *
+     * @param rooms       creates a fresh room for each replay
+     * @param metrics     the metrics the replays record into
+     * @param leaderboard the leaderboard the replays record into
+     */
+    public ReplayRunner(Supplier<? extends Room> rooms, GameMetrics metrics, Leaderboard leaderboard) {
+        this.rooms = rooms;
+        this.metrics = metrics;
+        this.leaderboard = leaderboard;
+    }
+
+    /**
+     * Returns the metrics the replays record into.
+     *
+     * @return the metrics of this runner's replays
+     */
+    public GameMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Returns the leaderboard the replays record into.
+     *
+     * @return the leaderboard of this runner's replays
+     */
+    public Leaderboard getLeaderboard() {
+        return leaderboard;
+    }
+
+    /**
+     * Reads a script from a file with one line per command. Lines starting with #
+     * are comments and are skipped.
+     *
+     * @param path the file to read
+     * @return the lines of the script
+     * @throws IOException if the file cannot be read
+     */
+    public static List<String> loadScript(Path path) throws IOException {
+        List<String> script = new ArrayList<>();
+        for (String line : Files.readAllLines(path)) {
+            if (!line.startsWith("#")) {
+                script.add(line);
+            }
+        }
+        return script;
+    }
+
+    /**
+     * Plays the script against a fresh room.
+     *
+     * @param script the lines to type
+     * @return the result of the replay
+     */
+    public ReplayResult replay(List<String> script) {
+        long start = System.nanoTime();
+        Room room = rooms.get();
+        ChecksumSink checksum = new ChecksumSink();
+        EscapeApp app = new EscapeApp(room, new Scanner(String.join("\n", script)), new GameOutput(checksum));
+        app.setMetrics(metrics);
+        app.setLeaderboard(leaderboard);
+        try {
+            app.runGame();
+        } catch (RuntimeException e) {
+            return new ReplayResult(ReplayResult.Outcome.CRASHED, app.getHandledCount(), checksum.getChecksum(),
+                    System.nanoTime() - start, e);
+        }
+        ReplayResult.Outcome outcome = room.escaped() ? ReplayResult.Outcome.ESCAPED
+                : room.failed() ? ReplayResult.Outcome.FAILED : ReplayResult.Outcome.INCOMPLETE;
+        return new ReplayResult(outcome, app.getHandledCount(), checksum.getChecksum(), System.nanoTime() - start,
+                null);
+    }
+
+    /**
+     * Plays the script against the given number of fresh rooms, spread over the
+     * given number of threads.
+     *
+     * @param script  the lines to type
+     * @param copies  the number of replays
+     * @param threads the number of threads to use
+     * @return the results of the replays
+     */
+    public List<ReplayResult> replayAll(List<String> script, int copies, int threads) {
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            return pool.submit(() -> IntStream.range(0, copies).parallel().mapToObj(i -> replay(script))
+                    .collect(Collectors.toList())).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while replaying", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Replay failed", e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Replays a script against the prisoner's escape and prints a summary.
+     *
+     * Usage: java ReplayRunner [script-file|-] [copies] [threads]
+     *
+     * With no script file (or -), the walkthrough is replayed.
+     */
+    public static void main(String[] args) throws IOException {
+        List<String> script = args.length > 0 && !args[0].equals("-") ? loadScript(Paths.get(args[0]))
+                : WIZARDS_LAB_WALKTHROUGH;
+        int copies = args.length > 1 ? Integer.parseInt(args[1]) : 1;
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+        ReplayRunner runner = new ReplayRunner(WizardLabDriver::createLab);
+
+        long start = System.nanoTime();
+        List<ReplayResult> results = runner.replayAll(script, copies, threads);
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        Map<ReplayResult.Outcome, Integer> outcomes = new EnumMap<>(ReplayResult.Outcome.class);
+        Map<String, Integer> checksums = new TreeMap<>();
+        for (ReplayResult result : results) {
+            outcomes.merge(result.getOutcome(), 1, Integer::sum);
+            checksums.merge(Long.toHexString(result.getChecksum()) + " (" + result.getTurns() + " turns)", 1,
+                    Integer::sum);
+        }
+        System.out.println("First replay: " + results.get(0));
+        System.out.println("Outcomes: " + outcomes);
+        System.out.println("Output checksums: " + checksums);
+        System.out.printf("%d replays on %d threads in %.2f s (%.0f replays/s)%n", copies, threads, seconds,
+                copies / seconds);
+        for (ReplayResult result : results) {
+            if (result.getError() != null) {
+                result.getError().printStackTrace();
+                break;
+            }
+        }
+    }
+}
@@ -1,30 +1,75 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.List;
 import java.util.ArrayList;
-import java.util.Scanner;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 public abstract class Room implements CommandHandler {
 
 	/** A list of items in the room */
 	private List<Item> items;
 
+	/**
+	 * The names of the items in the room, for finding items by the start of their
+	 * name or by a misspelled name (see resolveItem). It is only built the first
+	 * time a name is not found exactly, and is null until then.
+	 */
+	private NameTrie itemNames;
+
+	/** The items in the room indexed by name */
+	private Map<String, Item> itemsByName;
+
+	/**
+	 * Every item in the room indexed by name, including the items nested inside
+	 * containers whether they are open or closed
+	 */
+	private Map<String, Item> allItemsByName;
+
 	/** A list of recipes that define which items can be combined in the room */
 	private List<Recipe> recipes;
 
+	/** The read-only views of items and recipes handed out by getItems and getRecipes */
+	private List<Item> itemsView;
+	private List<Recipe> recipesView;
+
+	/** The recipes in the room indexed by key (see Recipe.keyOf) */
+	private Map<String, List<Recipe>> recipesByKey;
+
 	/**
 	 * A description of the room that is printed at the beginning of the game and
-	 * also when the look command is executed.
+	 * also when the look command is executed, by its id in TextStore.shared().
 	 */
-	private String description;
+	private int description;
 
 	/**
 	 * The introduction printed at the beginning of the game that describes the
-	 * scenario for this room.
+	 * scenario for this room, by its id in TextStore.shared().
 	 */
-	private String intro;
+	private int intro;
 
 	/** A reference to the EscapeApp running the game */
 	private EscapeApp app;
 
+	/** The listeners told about changes to the room */
+	private List<RoomListener> listeners;
+
+	/**
+	 * When the room was first put in an app, in milliseconds since the epoch, or 0
+	 * if it has not been yet
+	 */
+	private long startedAt;
+
+	/** The items named in the command being executed (see selectItems) */
+	private List<Item> selection;
+
 	/**
 	 * Creates a room with the given description and intro
 	 * 
@@ -32,8 +77,27 @@ public abstract class Room implements CommandHandler {
 	 * @param intro       the introduction describing the scenario for this room
 	 */
 	public Room(String description, String intro) {
+		this(TextStore.shared().intern(description), TextStore.shared().intern(intro));
+	}
+
+	/**
+	 * Creates a room whose description and intro are already in
+	 * TextStore.shared(), so they do not have to be looked up again for every new
+	 * room. TemplateRoom uses this.
+	 * 
+	 * @param description the id of the room description in TextStore.shared()
+	 * @param intro       the id of the introduction in TextStore.shared()
+	 */
+	protected Room(int description, int intro) {
 		items = new ArrayList<>();
+		itemsByName = new HashMap<>();
+		allItemsByName = new HashMap<>();
 		recipes = new ArrayList<>();
+		recipesByKey = new HashMap<>();
+		itemsView = Collections.unmodifiableList(items);
+		recipesView = Collections.unmodifiableList(recipes);
+		selection = new ArrayList<>();
+		listeners = new CopyOnWriteArrayList<>();
 		this.description = description;
 		this.intro = intro;
 	}
@@ -41,35 +105,180 @@ public abstract class Room implements CommandHandler {
 	/**
 	 * Adds an item to the room. If the item implements the CommandHandler interface
 	 * and the app has been set, the item is also added to the list of
-	 * CommandHandlers for the app.
+	 * CommandHandlers for the app. If the item is an open container, the items
+	 * visible inside it are added too (see addAll).
 	 * 
 	 * @param item the item to add
 	 * @throws IllegalArgumentException if the room already contains an item with
 	 *                                  the same name
 	 */
 	public void add(Item item) {
+		if (item instanceof Container && ((Container) item).isOpen()) {
+			addAll(Collections.singletonList(item));
+			return;
+		}
 		if (getItem(item.getName()) != null) {
 			throw new IllegalArgumentException("This room already contains a " + item.getName());
 		}
 		item.setRoom(this);
 		items.add(item);
+		itemsByName.put(item.getName(), item);
+		if (itemNames != null) {
+			itemNames.add(item.getName());
+		}
+		indexNested(item);
 		if (app != null && item instanceof CommandHandler) {
 			app.addHandler((CommandHandler) item);
 		}
+		publish(RoomEvent.ITEM_ADDED, item);
 	}
 
 	/**
 	 * Removes the item from the room. If the app has been set, the item is also
-	 * removed from the list of CommandHandlers.
+	 * removed from the list of CommandHandlers. If the item is an open container,
+	 * the items visible inside it are removed too (see removeAll).
 	 * 
 	 * @param item the item to remove
 	 */
 	public void remove(Item item) {
-		items.remove(item);
+		if (item instanceof Container && ((Container) item).isOpen() && itemsByName.get(item.getName()) == item) {
+			removeAll(Collections.singletonList(item));
+			return;
+		}
+		boolean removed = items.remove(item);
+		if (removed) {
+			itemsByName.remove(item.getName());
+			if (itemNames != null) {
+				itemNames.remove(item.getName());
+			}
+		}
 		if (app != null && item instanceof CommandHandler) {
 			app.removeHandler((CommandHandler) item);
 		}
 		item.setRoom(null);
+		if (item.getContainer() == null) {
+			unindexNested(item);
+		}
+		if (removed) {
+			publish(RoomEvent.ITEM_REMOVED, item);
+		}
+	}
+
+	/**
+	 * Adds all of the items to the room in order, like calling add(item) for each
+	 * one, but registers their CommandHandlers with the app all at once. The
+	 * contents of open containers are visible in the room, so for every open
+	 * container being added, its contents (and the contents of the open containers
+	 * among them, and so on) are added right after it.
+	 * 
+	 * @param newItems the items to add
+	 * @throws IllegalArgumentException if the room already contains an item with
+	 *                                  the same name as one of the items or the
+	 *                                  items visible inside them, or two of those
+	 *                                  have the same name. Every name is checked
+	 *                                  first, so nothing is added in that case.
+	 */
+	public void addAll(Collection<? extends Item> newItems) {
+		List<Item> adding = new ArrayList<>(newItems.size());
+		for (Item item : newItems) {
+			adding.add(item);
+			if (item instanceof Container && ((Container) item).isOpen()) {
+				addVisibleContents((Container) item, adding);
+			}
+		}
+		Set<String> names = new HashSet<>();
+		for (Item item : adding) {
+			if (getItem(item.getName()) != null || !names.add(item.getName())) {
+				throw new IllegalArgumentException("This room already contains a " + item.getName());
+			}
+		}
+		List<CommandHandler> newHandlers = new ArrayList<>();
+		for (Item item : adding) {
+			item.setRoom(this);
+			items.add(item);
+			itemsByName.put(item.getName(), item);
+			if (itemNames != null) {
+				itemNames.add(item.getName());
+			}
+			indexNested(item);
+			if (item instanceof CommandHandler) {
+				newHandlers.add((CommandHandler) item);
+			}
+		}
+		if (app != null && !newHandlers.isEmpty()) {
+			app.addHandlers(newHandlers);
+		}
+		for (Item item : adding) {
+			publish(RoomEvent.ITEM_ADDED, item);
+		}
+	}
+
+	/**
+	 * Removes all of the items from the room, like calling remove(item) for each
+	 * one, but goes through the room's items and the app's handlers only once. For
+	 * every open container being removed from the room, the items visible inside
+	 * it are removed too, so they do not stay behind in the room without it.
+	 * 
+	 * @param oldItems the items to remove
+	 */
+	public void removeAll(Collection<? extends Item> oldItems) {
+		List<Item> removingInOrder = new ArrayList<>(oldItems.size());
+		for (Item item : oldItems) {
+			removingInOrder.add(item);
+			if (item instanceof Container && ((Container) item).isOpen() && itemsByName.get(item.getName()) == item) {
+				addVisibleContents((Container) item, removingInOrder);
+			}
+		}
+		oldItems = removingInOrder;
+		Set<Item> removing = Collections.newSetFromMap(new IdentityHashMap<>());
+		List<CommandHandler> oldHandlers = new ArrayList<>();
+		for (Item item : oldItems) {
+			if (itemsByName.get(item.getName()) == item) {
+				itemsByName.remove(item.getName());
+				if (itemNames != null) {
+					itemNames.remove(item.getName());
+				}
+				removing.add(item);
+			}
+			if (item instanceof CommandHandler) {
+				oldHandlers.add((CommandHandler) item);
+			}
+		}
+		if (!removing.isEmpty()) {
+			items.removeIf(removing::contains);
+		}
+		if (app != null && !oldHandlers.isEmpty()) {
+			app.removeHandlers(oldHandlers);
+		}
+		for (Item item : oldItems) {
+			item.setRoom(null);
+		}
+		// only once every item has left the room, so unindexNested does not keep the
+		// ones inside an open container that is being removed
+		for (Item item : oldItems) {
+			if (item.getContainer() == null) {
+				unindexNested(item);
+			}
+		}
+		for (Item item : oldItems) {
+			if (removing.contains(item)) {
+				publish(RoomEvent.ITEM_REMOVED, item);
+			}
+		}
+	}
+
+	/**
+	 * Adds the items that are visible in the room because the container is open to
+	 * the list: its contents, followed by what is visible inside each of them that
+	 * is an open container too.
+	 */
+	private static void addVisibleContents(Container container, List<Item> visible) {
+		for (Item inside : container.getContents()) {
+			visible.add(inside);
+			if (inside instanceof Container && ((Container) inside).isOpen()) {
+				addVisibleContents((Container) inside, visible);
+			}
+		}
 	}
 
 	/**
@@ -81,32 +290,167 @@ public abstract class Room implements CommandHandler {
 	 *         exists.
 	 */
 	public Item getItem(String name) {
-		for (Item item : items) {
-			if (item.getName().equals(name))
-				return item;
+		return itemsByName.get(name);
+	}
+
+	/**
+	 * Returns the item in the room with the given name, or if there is none, the
+	 * only item in the room whose name starts with it. This lets players type
+	 * "use nine" for the nine_paper.
+	 * 
+	 * @param name the name of the item, or the start of it
+	 * @return the item, or null if no item or more than one item matches
+	 */
+	public Item resolveItem(String name) {
+		Item item = itemsByName.get(name);
+		if (item == null) {
+			String resolved = itemNames().resolve(name);
+			item = resolved == null ? null : itemsByName.get(resolved);
 		}
-		return null;
+		return item;
+	}
+
+	/**
+	 * Completes the start of an item name as far as every item in the room whose
+	 * name starts with it allows, like pressing tab in a terminal.
+	 * 
+	 * @param prefix the start of an item name
+	 * @return the completed prefix, or null if no item name starts with it
+	 */
+	public String completeItemName(String prefix) {
+		return itemNames().complete(prefix);
+	}
+
+	/**
+	 * Returns the names of the items in the room that start with the prefix, in
+	 * alphabetical order, up to the given number of them.
+	 * 
+	 * @param prefix the start of an item name
+	 * @param limit  the most names to return
+	 * @return the names of the items that start with the prefix
+	 */
+	public List<String> getItemNamesStartingWith(String prefix, int limit) {
+		return itemNames().startingWith(prefix, limit);
+	}
+
+	/**
+	 * Returns the name of the item in the room closest to the given misspelled
+	 * name, if it is only one or two typos away (one for names of three letters
+	 * or less).
+	 * 
+	 * @param name the misspelled name
+	 * @return the closest item name, or null if there is none close enough
+	 */
+	public String suggestItemName(String name) {
+		return itemNames().suggest(name, name.length() <= 3 ? 1 : 2);
 	}
 
 	/**
-	 * Returns a shallow copy of the list of items in the room. A shallow copy just
-	 * means that a new list is returned that contains all the same items as the
-	 * original. Changing the order of the items in the copy or adding or removing
-	 * items from the copy will not be reflected in the original list of items for
-	 * the room because the copy is a different list; however, the items in the copy
-	 * are direct references to the actual items in the room, so changing the
-	 * properties of an item contained in the copy will still change the properties
-	 * of the item in the room - they are the same objects. We do not give direct
-	 * access to the array because that would mean the list of items could be
-	 * modified directly, bypassing the add(item) and remove(item) methods that
-	 * perform additional actions that need to be done whenever an item is added or
-	 * removed from the room. It is good practice to protect your class from being
-	 * broken by misuse.
+	 * Returns the trie of item names, building it the first time it is needed.
+	 */
+	private NameTrie itemNames() {
+		if (itemNames == null) {
+			itemNames = new NameTrie();
+			for (Item item : items) {
+				itemNames.add(item.getName());
+			}
+		}
+		return itemNames;
+	}
+
+	/**
+	 * Prints that there is no item with the given name, and suggests the names
+	 * the player might have meant.
 	 * 
-	 * @return a shallow copy of the list of items in the room.
+	 * @param name the name the player typed
+	 */
+	private void printNoSuchItem(String name) {
+		List<String> matches = getItemNamesStartingWith(name, 4);
+		if (matches.size() > 1) {
+			String meant = String.join(", ", matches.subList(0, Math.min(3, matches.size())));
+			getOutput().println("There is no " + name + " here. Did you mean " + meant
+					+ (matches.size() > 3 ? ", ..." : "") + "?");
+			return;
+		}
+		String suggestion = suggestItemName(name);
+		if (suggestion != null) {
+			getOutput().println("There is no " + name + " here. Did you mean " + suggestion + "?");
+		} else {
+			getOutput().println("There is no " + name + " here.");
+		}
+	}
+
+	/**
+	 * Returns the item with the given name anywhere in the room, including items
+	 * nested inside open or closed containers, or null if no such item exists. If
+	 * more than one nested item has the same name, the first one that was added is
+	 * returned.
+	 * 
+	 * @param name the name of the item
+	 * @return the item with the given name anywhere in the room, or null if no
+	 *         such item exists.
+	 */
+	public Item findItem(String name) {
+		return allItemsByName.get(name);
+	}
+
+	/**
+	 * Adds the item and everything nested inside it to the index used by
+	 * findItem(name). This is called whenever an item enters the room, either
+	 * directly or by being added to a container in the room.
+	 * 
+	 * @param item the item to index
+	 */
+	void indexNested(Item item) {
+		Item indexed = allItemsByName.putIfAbsent(item.getName(), item);
+		if (indexed == item) {
+			// already indexed along with everything inside it
+			return;
+		}
+		if (item instanceof Container) {
+			for (Item inside : ((Container) item).getContents()) {
+				indexNested(inside);
+			}
+		}
+	}
+
+	/**
+	 * Removes the item and everything nested inside it from the index used by
+	 * findItem(name), except for nested items that are still directly in the room.
+	 * 
+	 * @param item the item to remove from the index
+	 */
+	void unindexNested(Item item) {
+		allItemsByName.remove(item.getName(), item);
+		if (item instanceof Container) {
+			for (Item inside : ((Container) item).getContents()) {
+				if (inside.getRoom() != this) {
+					unindexNested(inside);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns a read-only view of the list of items in the room. The view is not a
+	 * copy: it always shows the items that are in the room right now, and getting
+	 * it does not create a new list, so it can be called every turn for free.
+	 * Trying to add, remove or reorder items through the view throws an
+	 * UnsupportedOperationException, because that would bypass the add(item) and
+	 * remove(item) methods that perform additional actions that need to be done
+	 * whenever an item is added or removed from the room. It is good practice to
+	 * protect your class from being broken by misuse. The items in the view are
+	 * the actual items in the room, so changing the properties of an item will
+	 * still change the item in the room - they are the same objects.
+	 * 
+	 * Because the view is live, adding or removing items while going through it
+	 * throws a ConcurrentModificationException. Copy it first (for example with
+	 * new ArrayList<>(room.getItems())) if the room may change along the way.
+	 * 
+	 * @return a read-only view of the list of items in the room.
 	 */
 	public List<Item> getItems() {
-		return new ArrayList<>(items);
+		return itemsView;
 	}
 
 	/**
@@ -116,6 +460,7 @@ public abstract class Room implements CommandHandler {
 	 */
 	public void add(Recipe recipe) {
 		recipes.add(recipe);
+		recipesByKey.computeIfAbsent(recipe.getKey(), k -> new ArrayList<>(1)).add(recipe);
 	}
 
 	/**
@@ -124,24 +469,30 @@ public abstract class Room implements CommandHandler {
 	 * @param recipe the recipe to remove
 	 */
 	public void remove(Recipe recipe) {
-		recipes.remove(recipe);
+		if (recipes.remove(recipe)) {
+			List<Recipe> sameKey = recipesByKey.get(recipe.getKey());
+			sameKey.remove(recipe);
+			if (sameKey.isEmpty()) {
+				recipesByKey.remove(recipe.getKey());
+			}
+		}
 	}
 
 	/**
-	 * Returns a shallow copy of the list of recipes in the room. See getItems() for
-	 * more information on what it means to be a shallow copy.
+	 * Returns a read-only view of the list of recipes in the room. See getItems()
+	 * for more information on what it means to be a read-only view.
 	 * 
-	 * @return a shallow copy of the list of recipes in the room.
+	 * @return a read-only view of the list of recipes in the room.
 	 */
 	public List<Recipe> getRecipes() {
-		return new ArrayList<>(recipes);
+		return recipesView;
 	}
 
 	/**
 	 * Prints the room description, including a list of all the items in the room.
 	 */
 	public void printDescription() {
-		System.out.println(description);
+		getOutput().printlnText(description);
 		listItems();
 	}
 
@@ -149,19 +500,115 @@ public abstract class Room implements CommandHandler {
 	 * Prints the introduction describing the scenario for this room.
 	 */
 	public void printIntro() {
-		System.out.println(intro);
+		getOutput().printlnText(intro);
 	}
 
 	/**
 	 * Prints the list of items in the room.
 	 */
 	public void listItems() {
-		System.out.println("\nYou can see:");
+		getOutput().println("\nYou can see:");
 		for (Item i : items) {
-			System.out.println("  " + i);
+			getOutput().println("  " + i);
 		}
 	}
 
+	/**
+	 * Replaces all the items in the room with the given items without any of the
+	 * side effects of add(item) and remove(item) other than keeping the app's
+	 * handlers up to date and telling the listeners that the old items were removed
+	 * and the new ones added. Containers are not opened or closed, so the items
+	 * that are visible because a container is open must be part of the list. This
+	 * is only meant for restoring a snapshot (see RoomSnapshot).
+	 * 
+	 * @param visible the items that are directly in the room, in order
+	 */
+	void restoreItems(List<Item> visible) {
+		List<Item> removed = new ArrayList<>(items);
+		for (Item item : items) {
+			if (app != null && item instanceof CommandHandler) {
+				app.removeHandler((CommandHandler) item);
+			}
+			item.setRoom(null);
+		}
+		items.clear();
+		itemsByName.clear();
+		allItemsByName.clear();
+		// the trie is built again from the new items the next time it is needed
+		itemNames = null;
+		for (Item item : visible) {
+			if (itemsByName.putIfAbsent(item.getName(), item) != null) {
+				throw new IllegalArgumentException("This room already contains a " + item.getName());
+			}
+			items.add(item);
+			item.setRoom(this);
+		}
+		for (Item item : visible) {
+			indexNested(item);
+			if (app != null && item instanceof CommandHandler) {
+				app.addHandler((CommandHandler) item);
+			}
+		}
+		for (Item item : removed) {
+			publish(RoomEvent.ITEM_REMOVED, item);
+		}
+		for (Item item : visible) {
+			publish(RoomEvent.ITEM_ADDED, item);
+		}
+	}
+
+	/**
+	 * Adds a listener that is told about every change to the room from now on.
+	 * 
+	 * @param listener the listener to add
+	 */
+	public void addListener(RoomListener listener) {
+		listeners.add(listener);
+	}
+
+	/**
+	 * Removes a listener.
+	 * 
+	 * @param listener the listener to remove
+	 */
+	public void removeListener(RoomListener listener) {
+		listeners.remove(listener);
+	}
+
+	/**
+	 * Tells every listener about a change to the room. Rooms with their own turn
+	 * rules should publish RoomEvent.TURN_CONSUMED whenever a turn is used up.
+	 * 
+	 * @param event   what changed
+	 * @param subject the item, recipe or command the event is about
+	 */
+	protected void publish(RoomEvent event, Object subject) {
+		for (RoomListener listener : listeners) {
+			listener.onRoomEvent(event, subject);
+		}
+	}
+
+	/**
+	 * Writes the state of the room that is not part of its items, such as a turn
+	 * counter, to a snapshot (see RoomSnapshot). Rooms with such state must
+	 * override this and readState(in).
+	 * 
+	 * @param out where to write the state
+	 * @throws IOException if the state cannot be written
+	 */
+	protected void writeState(DataOutput out) throws IOException {
+	}
+
+	/**
+	 * Reads the state written by writeState(out) from a snapshot. This is called
+	 * after the room's items have been restored.
+	 * 
+	 * @param in where to read the state from
+	 * @throws IOException if the state cannot be read
+	 */
+	protected void readState(DataInput in) throws IOException {
+	}
+
 	/**
 	 * Returns a reference to the app.
 	 * 
@@ -172,50 +619,165 @@ public abstract class Room implements CommandHandler {
 	}
 
 	/**
-	 * Sets the app
+	 * Returns the output of the app, or the console if the app has not been
+	 * set. Everything the room and its items print should be printed here so that
+	 * each player session gets its own output.
 	 * 
-	 * @param app the app
+	 * @return the output of the app, or the console if the app has not been set
+	 */
+	public GameOutput getOutput() {
+		return app != null ? app.getOutput() : GameOutput.console();
+	}
+
+	/**
+	 * Returns the metrics of the app, or the global metrics if the app has not
+	 * been set.
+	 * 
+	 * @return the metrics the room and its items should record into
+	 */
+	public GameMetrics getMetrics() {
+		return app != null ? app.getMetrics() : GameMetrics.global();
+	}
+
+	/**
+	 * Returns the leaderboard of the app, or the global leaderboard if the app has
+	 * not been set.
+	 * 
+	 * @return the leaderboard the room should record escapes and failures into
+	 */
+	public Leaderboard getLeaderboard() {
+		return app != null ? app.getLeaderboard() : Leaderboard.global();
+	}
+
+	/**
+	 * Returns the name the room is listed under on the leaderboard. By default
+	 * this is the name of the room's class.
+	 * 
+	 * @return the name of the room
+	 */
+	public String getName() {
+		return getClass().getSimpleName();
+	}
+
+	/**
+	 * Returns how long ago the room was first put in an app (which is when the
+	 * player started playing it), in milliseconds.
+	 * 
+	 * @return how long the player has been playing the room in milliseconds, or 0
+	 *         if the room has not been put in an app
+	 */
+	public long getElapsedMillis() {
+		return startedAt == 0 ? 0 : System.currentTimeMillis() - startedAt;
+	}
+
+	/**
+	 * Returns when the room was first put in an app, in milliseconds since the
+	 * epoch.
+	 * 
+	 * @return when the player started playing the room, or 0 if the room has not
+	 *         been put in an app
+	 */
+	public long getStartedAt() {
+		return startedAt;
+	}
+
+	/**
+	 * Sets when the player started playing the room. Rooms restored from a
+	 * snapshot use this to keep the time the original room was started, so the
+	 * time on the leaderboard includes the time before the snapshot.
+	 * 
+	 * @param startedAt when the player started playing the room, in milliseconds
+	 *                  since the epoch
+	 */
+	public void setStartedAt(long startedAt) {
+		this.startedAt = startedAt;
+	}
+
+	/**
+	 * Sets the app, moving the room's handlers from the old app (if any) to the new
+	 * one.
+	 * 
+	 * @param app the app, or null to take the room out of its app
 	 */
 	public void setApp(EscapeApp app) {
 		// remove handlers from old app
 		if (this.app != null) {
 			this.app.removeHandler(this);
-			for (Item item : items) {
-				if (item instanceof CommandHandler) {
-					getApp().removeHandler((CommandHandler) item);
-				}
-			}
+			this.app.removeHandlers(handlers());
 		}
 		this.app = app;
 		// add handlers to new app
-		app.addHandler(this);
 		if (app != null) {
-			for (Item item : items) {
-				if (item instanceof CommandHandler) {
-					getApp().addHandler((CommandHandler) item);
-				}
+			if (startedAt == 0) {
+				startedAt = System.currentTimeMillis();
 			}
+			app.addHandler(this);
+			app.addHandlers(handlers());
 		}
 	}
 
+	/**
+	 * Returns the items in the room that are CommandHandlers.
+	 * 
+	 * @return the items in the room that are CommandHandlers
+	 */
+	private List<CommandHandler> handlers() {
+		List<CommandHandler> handlers = new ArrayList<>();
+		for (Item item : items) {
+			if (item instanceof CommandHandler) {
+				handlers.add((CommandHandler) item);
+			}
+		}
+		return handlers;
+	}
+
 	/**
 	 * Attempts to combine the given items. If any recipes in this room match the
 	 * items, the items will be combined by calling combineInRoom on the recipe,
 	 * passing this room. If the items don't match a recipe, the onCombineFailed
-	 * method will be called.
+	 * method will be called. Recipes where order matters are checked before
+	 * recipes where it does not, and otherwise recipes are checked in the order
+	 * they were added.
 	 * 
 	 * @param items the items to attempt to combine
 	 */
 	public void combine(List<Item> items) {
-		System.out.println(items);
-		System.out.println(recipes);
-		for (Recipe recipe : recipes) {
-			if (recipe.matchesItems(items)) {
-				recipe.combineInRoom(this);
-				return;
+		List<String> names = new ArrayList<>(items.size());
+		for (Item item : items) {
+			names.add(item.getName());
+		}
+		Recipe recipe = findRecipe(Recipe.keyOf(names, true), items);
+		if (recipe == null) {
+			recipe = findRecipe(Recipe.keyOf(names, false), items);
+		}
+		getMetrics().recordCombine(recipe);
+		if (recipe != null) {
+			recipe.combineInRoom(this);
+			publish(RoomEvent.RECIPE_FIRED, recipe);
+		} else {
+			onCombineFailed(items);
+		}
+	}
+
+	/**
+	 * Returns the first recipe indexed under the given key that matches the items,
+	 * or null if there is none.
+	 * 
+	 * @param key   the key to look up
+	 * @param items the items to match
+	 * @return the first recipe indexed under the key that matches the items, or
+	 *         null if there is none
+	 */
+	private Recipe findRecipe(String key, List<Item> items) {
+		List<Recipe> sameKey = recipesByKey.get(key);
+		if (sameKey != null) {
+			for (Recipe recipe : sameKey) {
+				if (recipe.matchesItems(items)) {
+					return recipe;
+				}
 			}
 		}
-		onCombineFailed(items);
+		return null;
 	}
 
 	/**
@@ -226,7 +788,7 @@ public abstract class Room implements CommandHandler {
 	 * @param items the items that failed to combine
 	 */
 	public void onCombineFailed(List<Item> items) {
-		System.out.println("Nothing happens.");
+		getOutput().println("Nothing happens.");
 	}
 
 	@Override
@@ -234,124 +796,152 @@ public abstract class Room implements CommandHandler {
 		if (command.equals("look")) {
 			printDescription();
 			return true;
-		} else {
-			Scanner scan = new Scanner(command);
-			if (scan.hasNext()) {
-				String com = scan.next();
-				if (com.equals("use")) {
-					if (!scan.hasNext()) {
-						System.out.println("Use what?");
-					} else {
-						String itemName = scan.nextLine().trim();
-						Item item = getItem(itemName);
-						if (item == null) {
-							System.out.println("There is no " + itemName + " here.");
-						} else {
-							item.use();
-						}
-					}
-					scan.close();
-					return true;
-				} else if (com.equals("combine")) {
-					List<Item> stuff = new ArrayList<>();
-					while (scan.hasNext()) {
-						String itemName = scan.next();
-						Item item = getItem(itemName);
-						if (item == null) {
-							System.out.println("There is no " + itemName + " here.");
-							scan.close();
-							return true;
-						}
-						stuff.add(item);
+		}
+		CommandTokenizer tokens = tokenize(command);
+		if (!tokens.next()) {
+			return false;
+		}
+		if (tokens.tokenEquals("use")) {
+			if (!tokens.hasNext()) {
+				getOutput().println("Use what?");
+			} else {
+				String itemName = tokens.rest();
+				Item item = resolveItem(itemName);
+				if (item == null) {
+					printNoSuchItem(itemName);
+				} else {
+					item.use();
+				}
+			}
+			return true;
+		} else if (tokens.tokenEquals("combine")) {
+			List<Item> stuff = selectItems(tokens);
+			if (stuff == null) {
+				return true;
+			}
+			if (stuff.size() == 0) {
+				getOutput().println("Combine what?");
+			} else if (stuff.size() == 1) {
+				getOutput().println("Combine " + stuff.get(0).getName() + " with what?");
+			} else {
+				getOutput().print("You attempt to combine the following items: " + stuff.get(0).getName());
+				for (int i = 1; i < stuff.size(); i++) {
+					Item item = stuff.get(i);
+					getOutput().print(", " + item.getName());
+				}
+				getOutput().println();
+				combine(stuff);
+			}
+			stuff.clear();
+			return true;
+		} else if (tokens.tokenEquals("order")) {
+			List<Item> stuff = selectItems(tokens);
+			if (stuff == null) {
+				return true;
+			}
+			if (stuff.size() == 0) {
+				getOutput().println("Order what?");
+			} else if (stuff.size() == 1) {
+				getOutput().println("Order " + stuff.get(0).getName() + " with what?");
+			} else {
+				getOutput().print("You attempt to order the following items: " + stuff.get(0).getName() + " and " + stuff.get(1).getName());
+				if(stuff.get(0).getName().equals("milk") && stuff.get(1).getName().equals("cereal")){
+					for (int i = 2; i < stuff.size(); i++) {
+						Item item = stuff.get(i);
+						getOutput().print(", " + item.getName());
 					}
-					scan.close();
-					if (stuff.size() == 0) {
-						System.out.println("Combine what?");
-					} else if (stuff.size() == 1) {
-						System.out.println("Combine " + stuff.get(0).getName() + " with what?");
-					} else {
-						System.out.print("You attempt to combine the following items: " + stuff.get(0).getName());
-						for (int i = 1; i < stuff.size(); i++) {
-							Item item = stuff.get(i);
-							System.out.print(", " + item.getName());
-						}
-						System.out.println();
-						combine(stuff);
+					getOutput().println();
+					getOutput().println("Congrats you can make cereal. \nUse this information for the four number lock after unlocking the blackboard");
+				} else if (stuff.get(0).getName().equals("cereal") && stuff.get(1).getName().equals("milk")){
+					getOutput().println();
+					getOutput().println("Someone doesn't know how to make cereal");
+				} else {
+					getOutput().println();
+					getOutput().println("There is no need to order these items.");
+				}
+			}
+			stuff.clear();
+			return true;
+		} else if (tokens.tokenEquals("say")) {
+			boolean saidSomething = false;
+			while (tokens.next()) {
+				saidSomething = true;
+				if (tokens.tokenEquals("21")) {
+					if (getItem("twenty_one_paper") == null) {
+						add(new TextItem("twenty_one_paper", "This item is a paper with the number 21", "21"));
 					}
+					getOutput().println("9 + 10 = 21");
+					getOutput().println("Congrats! You can add.");
+				} else {
+					getOutput().println("You should be using all the paper to say an answer to an addition question. ");
+					getOutput().println("Or you don't know how to add");
+				}
+				if (getItem("twenty_one_paper") == null) {
+					getOutput().println("There is no " + tokens.token() + " here.");
 					return true;
-				} else if (com.equals("order")){
-					List<Item> stuff = new ArrayList<>();
-					while (scan.hasNext()) {
-						String itemName = scan.next();
-						Item item = getItem(itemName);
-						if (item == null) {
-							System.out.println("There is no " + itemName + " here.");
-							scan.close();
-							return true;
-						}
-						stuff.add(item);
-					}
-					if (stuff.size() == 0) {
-						System.out.println("Order what?");
-					} else if (stuff.size() == 1) {
-						System.out.println("Order " + stuff.get(0).getName() + " with what?");
-					} else {
-						System.out.print("You attempt to order the following items: " + stuff.get(0).getName() + " and " + stuff.get(1).getName());
-						if(stuff.get(0).getName().equals("milk") && stuff.get(1).getName().equals("cereal")){
-							for (int i = 1; i < stuff.size(); i++) {
-								Item item = stuff.get(i);
-								System.out.print(", " + item.getName());
-							}
-							System.out.println();
-							System.out.println("Congrats you can make cereal. \nUse this information for the four number lock after unlocking the blackboard");
-						} else if (stuff.get(0).getName().equals("cereal") && stuff.get(1).getName().equals("milk")){
-							System.out.println();
-							System.out.println("Someone doesn't know how to make cereal");
-						} else {
-							System.out.println();
-							System.out.println("There is no need to order these items.");
-						}
-					}
-				} else if (com.equals("say")) {
-					List<Item> stuff = new ArrayList<>();
-					Item twentyone = new TextItem("twenty_one_paper",
-									"This item is a paper with the number 21", "21");
-					while (scan.hasNext()) {
-						String str = scan.next();
-						if(str.equals("21")){
-							items.add(twentyone);
-							System.out.println("9 + 10 = 21");
-							System.out.println("Congrats! You can add.");
-						} else {
-							System.out.println("You should be using all the paper to say an answer to an addition question. ");
-							System.out.println("Or you don't know how to add");
-						}
-						Item item = getItem(twentyone.getName());
-						if (item == null) {
-							System.out.println("There is no " + str + " here.");
-							scan.close();
-							return true;
-						}
-						stuff.add(item);
-					}
-					if (stuff.size() == 0) {
-						System.out.println("Say what?");
-					}
-					
 				}
 			}
-			scan.close();
+			if (!saidSomething) {
+				getOutput().println("Say what?");
+			}
 		}
 		return false;
 	}
 
+	/**
+	 * Returns the tokenizer to use for the given command, reset to the start of the
+	 * command. This is the app's shared tokenizer if the app has been set.
+	 * 
+	 * @param command the command to tokenize
+	 * @return a tokenizer reset to the start of the command
+	 */
+	protected CommandTokenizer tokenize(String command) {
+		if (app == null) {
+			return new CommandTokenizer().reset(command);
+		}
+		return app.getTokenizer().reset(command);
+	}
+
+	/**
+	 * Looks up the item named by each of the remaining tokens (see resolveItem)
+	 * and returns them in a list that is reused by every command, so the caller
+	 * must clear it when it is done. If one of the items is not in the room, this
+	 * prints a message and returns null instead.
+	 * 
+	 * @param tokens the tokenizer positioned before the item names
+	 * @return the named items, or null if one of them is not in the room
+	 */
+	private List<Item> selectItems(CommandTokenizer tokens) {
+		selection.clear();
+		while (tokens.next()) {
+			String itemName = tokens.token();
+			Item item = resolveItem(itemName);
+			if (item == null) {
+				printNoSuchItem(itemName);
+				selection.clear();
+				return null;
+			}
+			selection.add(item);
+		}
+		return selection;
+	}
+
 	@Override
 	public void printHelp() {
-		System.out.println("look prints the room description");
-		System.out.println("use <item> uses an item");
-		System.out.println("combine <item1> <item2> ... attempts to combine a list of items");
-		System.out.println("order <item1> <item2> Checks if this is the right order");
-		System.out.println("say <item> Says an item outloud. Sometimes things are better said outloud. Like addition! So the internet can check your work ;)");
+		getOutput().println("look prints the room description");
+		getOutput().println("use <item> uses an item");
+		getOutput().println("combine <item1> <item2> ... attempts to combine a list of items");
+		getOutput().println("order <item1> <item2> Checks if this is the right order");
+		getOutput().println("say <item> Says an item outloud. Sometimes things are better said outloud. Like addition! So the internet can check your work ;)");
+	}
+
+	/**
+	 * Returns the verbs handled by execute(). Subclasses that handle additional
+	 * commands must add their verbs to the routes.
+	 */
+	@Override
+	public String[] getRoutes() {
+		return new String[] { "look", "use", "combine", "order", "say" };
 	}
 
 	public abstract void printRoomPrompt();
@@ -0,0 +1,22 @@
+/**
+ * The changes to a room that RoomListeners are told about. Each event comes
+ * with a subject, described below.
+ */
+public enum RoomEvent {
+    /** an item was added to the room; the subject is the item */
+    ITEM_ADDED,
+    /** an item was removed from the room; the subject is the item */
+    ITEM_REMOVED,
+    /** a container in the room was opened; the subject is the container */
+    CONTAINER_OPENED,
+    /** a container in the room was closed; the subject is the container */
+    CONTAINER_CLOSED,
+    /** a container in the room was locked; the subject is the container */
+    CONTAINER_LOCKED,
+    /** a container in the room was unlocked; the subject is the container */
+    CONTAINER_UNLOCKED,
+    /** a recipe was combined in the room; the subject is the recipe */
+    RECIPE_FIRED,
+    /** the player used up a turn; the subject is the command */
+    TURN_CONSUMED
+}
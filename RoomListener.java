@@ -0,0 +1,15 @@
+/**
+ * Listens for changes to a room (see Room.addListener). Win and lose conditions
+ * can listen for the events that affect them instead of checking the whole room
+ * after every turn.
+ */
+public interface RoomListener {
+    /**
+     * Called after the room has changed.
+     * 
+     * @param event   what changed
+     * @param subject the item, recipe or command the event is about (see
+     *                RoomEvent)
+     */
+    public void onRoomEvent(RoomEvent event, Object subject);
+}
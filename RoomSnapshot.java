@@ -0,0 +1,261 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Saves the state of a room in a compact binary format and restores it without
+ * replaying any commands.
+ *
+ * A snapshot holds every item in the room, including the items nested inside
+ * open or closed containers and the items that are only inside a container
+ * because a recipe removed them from the room, along with the open and locked
+ * state of every container, which items are directly in the room and the
+ * room's own state (see Room.writeState). It does not hold the room's
+ * description, intro or recipes, which come from the room the snapshot is
+ * restored into. That room should be a freshly created room of the same kind.
+ *
+ * Format (all numbers big-endian, strings in modified UTF-8):
+ *
+ * <pre>
+ * int     MAGIC
+ * short   VERSION
+ * int     number of top-level items, followed by each item:
+ *   byte  type (USELESS, TEXT, PLATINUM_KEY, CONTAINER or PASSWORD_CONTAINER)
+ *   UTF   name
+ *   UTF   description
+ *   UTF   text                        (TEXT only)
+ *   UTF   password                    (PASSWORD_CONTAINER only)
+ *   bool  open, bool locked           (containers only)
+ *   int   number of contents, then each item   (containers only)
+ * int     number of items directly in the room, then the position of each one
+ *         in the order the items were written above
+ * ...     the room's own state
+ * </pre>
+ */
+public class RoomSnapshot {
+    /** the first four bytes of every snapshot ("ESCR") */
+    public static final int MAGIC = 0x45534352;
+
+    /** the version of the format written by this class */
+    public static final short VERSION = 1;
+
+    /** the type tags of the items that can be saved */
+    private static final byte USELESS = 0, TEXT = 1, PLATINUM_KEY = 2, CONTAINER = 3, PASSWORD_CONTAINER = 4;
+
+    private RoomSnapshot() {
+    }
+
+    /**
+     * Writes a snapshot of the room.
+     *
+     * @param room   the room to save
+     * @param stream where to write the snapshot
+     * @throws IOException              if the snapshot cannot be written
+     * @throws IllegalArgumentException if the room contains a kind of item that
+     *                                  cannot be saved
+     */
+    public static void write(Room room, OutputStream stream) throws IOException {
+        DataOutputStream out = new DataOutputStream(stream);
+        out.writeInt(MAGIC);
+        out.writeShort(VERSION);
+
+        // the items that are not inside a container, each written with everything
+        // nested inside it
+        List<Item> topLevel = new ArrayList<>();
+        Map<Item, Boolean> seen = new IdentityHashMap<>();
+        for (Item item : room.getItems()) {
+            Item top = item;
+            while (top.getContainer() != null) {
+                top = top.getContainer();
+            }
+            if (seen.put(top, Boolean.TRUE) == null) {
+                topLevel.add(top);
+            }
+        }
+        Map<Item, Integer> positions = new IdentityHashMap<>();
+        out.writeInt(topLevel.size());
+        for (Item item : topLevel) {
+            writeItem(item, out, positions);
+        }
+
+        List<Item> visible = room.getItems();
+        out.writeInt(visible.size());
+        for (Item item : visible) {
+            out.writeInt(positions.get(item));
+        }
+        room.writeState(out);
+        out.flush();
+    }
+
+    /**
+     * Writes the item and everything nested inside it, recording the position of
+     * each item written.
+     */
+    private static void writeItem(Item item, DataOutput out, Map<Item, Integer> positions) throws IOException {
+        positions.put(item, positions.size());
+        Class<?> type = item.getClass();
+        if (type == UselessItem.class) {
+            out.writeByte(USELESS);
+        } else if (type == TextItem.class) {
+            out.writeByte(TEXT);
+        } else if (type == PlatinumKey.class) {
+            out.writeByte(PLATINUM_KEY);
+        } else if (type == Container.class) {
+            out.writeByte(CONTAINER);
+        } else if (type == PasswordLockedContainer.class) {
+            out.writeByte(PASSWORD_CONTAINER);
+        } else {
+            throw new IllegalArgumentException("Cannot save an item of type " + type.getName());
+        }
+        out.writeUTF(item.getName());
+        out.writeUTF(item.getBaseDescription());
+        if (item instanceof TextItem) {
+            out.writeUTF(((TextItem) item).getText());
+        }
+        if (item instanceof PasswordLockedContainer) {
+            out.writeUTF(((PasswordLockedContainer) item).getPassword());
+        }
+        if (item instanceof Container) {
+            Container container = (Container) item;
+            out.writeBoolean(container.isOpen());
+            out.writeBoolean(container.isLocked());
+            List<Item> contents = container.getContents();
+            out.writeInt(contents.size());
+            for (Item inside : contents) {
+                writeItem(inside, out, positions);
+            }
+        }
+    }
+
+    /**
+     * Restores a snapshot into the given room, replacing all of its items. If the
+     * room's app has been set, its handlers are updated to match the restored
+     * items.
+     *
+     * @param room   a freshly created room of the same kind as the one saved
+     * @param stream where to read the snapshot from
+     * @return the room
+     * @throws IOException if the snapshot cannot be read or is not a snapshot
+     *                     this class can restore
+     */
+    public static <R extends Room> R read(R room, InputStream stream) throws IOException {
+        DataInputStream in = new DataInputStream(stream);
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a room snapshot");
+        }
+        short version = in.readShort();
+        if (version != VERSION) {
+            throw new IOException("Unsupported room snapshot version " + version);
+        }
+
+        List<Item> items = new ArrayList<>();
+        List<Container> containers = new ArrayList<>();
+        List<boolean[]> containerStates = new ArrayList<>();
+        int topLevel = in.readInt();
+        for (int i = 0; i < topLevel; i++) {
+            readItem(in, items, containers, containerStates);
+        }
+
+        int visibleCount = in.readInt();
+        List<Item> visible = new ArrayList<>(visibleCount);
+        for (int i = 0; i < visibleCount; i++) {
+            int position = in.readInt();
+            if (position < 0 || position >= items.size()) {
+                throw new IOException("Corrupt room snapshot: no item at position " + position);
+            }
+            visible.add(items.get(position));
+        }
+        // every container was created closed so that restoring the room's items does
+        // not also add their contents
+        room.restoreItems(visible);
+        for (int i = 0; i < containers.size(); i++) {
+            containers.get(i).restoreState(containerStates.get(i)[0], containerStates.get(i)[1]);
+        }
+        room.readState(in);
+        return room;
+    }
+
+    /**
+     * Reads an item and everything nested inside it, adding each one to items.
+     */
+    private static Item readItem(DataInput in, List<Item> items, List<Container> containers,
+            List<boolean[]> containerStates) throws IOException {
+        byte type = in.readByte();
+        String name = in.readUTF();
+        String description = in.readUTF();
+        Item item;
+        switch (type) {
+        case USELESS:
+            item = new UselessItem(name, description);
+            break;
+        case TEXT:
+            item = new TextItem(name, description, in.readUTF());
+            break;
+        case PLATINUM_KEY:
+            item = new PlatinumKey(name, description);
+            break;
+        case CONTAINER:
+            item = new Container(name, description);
+            break;
+        case PASSWORD_CONTAINER:
+            item = new PasswordLockedContainer(name, description, false, false, in.readUTF());
+            break;
+        default:
+            throw new IOException("Corrupt room snapshot: unknown item type " + type);
+        }
+        items.add(item);
+        if (item instanceof Container) {
+            Container container = (Container) item;
+            containers.add(container);
+            containerStates.add(new boolean[] { in.readBoolean(), in.readBoolean() });
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                container.add(readItem(in, items, containers, containerStates));
+            }
+        }
+        return item;
+    }
+
+    /**
+     * Returns a snapshot of the room as an array of bytes.
+     *
+     * @param room the room to save
+     * @return a snapshot of the room
+     */
+    public static byte[] toBytes(Room room) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(1024);
+        try {
+            write(room, bytes);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Restores a snapshot returned by toBytes(room) into the given room.
+     *
+     * @param room     a freshly created room of the same kind as the one saved
+     * @param snapshot the snapshot to restore
+     * @return the room
+     * @throws IllegalArgumentException if the snapshot cannot be restored
+     */
+    public static <R extends Room> R fromBytes(R room, byte[] snapshot) {
+        try {
+            return read(room, new ByteArrayInputStream(snapshot));
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Cannot restore room snapshot", e);
+        }
+    }
+}
@@ -0,0 +1,481 @@
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Scanner;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * Finds the fewest turns needed to escape a room, by trying every useful
+ * command in every state the room can reach.
+ *
+ * A state is a snapshot of the room (see RoomSnapshot). From each state the
+ * solver tries unlocking every locked container whose password it was given,
+ * opening every closed container, combining the ingredients of every recipe
+ * whose ingredients are all in the room and any extra commands it was given
+ * (like "say 21" in the prisoner's escape). Commands that no handler handles do
+ * not use up a turn, so they are tried before the commands that do. States are
+ * explored breadth first, one turn at a time, and each turn's states are
+ * expanded in parallel on a fork-join pool. States that only differ in the
+ * number of turns taken or the order of the room's items are explored once.
+ *
+ * The solver assumes, like WizardsLab and TemplateRoom, that having more items
+ * in the room never stops it from being escaped. So it never closes containers
+ * and never opens or unlocks empty ones, since those commands can only lose
+ * items or waste turns.
+ */
+public class RoomSolver {
+    /** creates a fresh room for each state that is expanded */
+    private Supplier<? extends Room> rooms;
+
+    /** the passwords the solver knows, by container name */
+    private Map<String, String> passwords;
+
+    /** the commands tried in every state on top of unlock, open and combine */
+    private List<String> extraCommands;
+
+    /** the number of threads that expand states */
+    private int threads;
+
+    /** the solver gives up after exploring this many states */
+    private int maxStates;
+
+    /** the metrics the solver's games record into, kept apart from real games */
+    private GameMetrics metrics;
+
+    /**
+     * A way to escape a room in the fewest turns.
+     */
+    public static class Solution {
+        private int turns;
+        private List<String> lines;
+        private int statesExplored;
+        private long elapsedNanos;
+
+        private Solution(int turns, List<String> lines, int statesExplored, long elapsedNanos) {
+            this.turns = turns;
+            this.lines = lines;
+            this.statesExplored = statesExplored;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        /**
+         * Returns the number of turns the solution takes.
+         *
+         * @return the number of turns the solution takes
+         */
+        public int getTurns() {
+            return turns;
+        }
+
+        /**
+         * Returns the lines a player would type to escape, including the passwords
+         * typed after each unlock command. They can be replayed with ReplayRunner.
+         *
+         * @return the lines to type
+         */
+        public List<String> getLines() {
+            return lines;
+        }
+
+        /**
+         * Returns the number of distinct states the solver explored.
+         *
+         * @return the number of distinct states explored
+         */
+        public int getStatesExplored() {
+            return statesExplored;
+        }
+
+        /**
+         * Returns how long the search took in nanoseconds.
+         *
+         * @return how long the search took in nanoseconds
+         */
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            return turns + " turns (" + statesExplored + " states explored in " + elapsedNanos / 1_000_000 + " ms)";
+        }
+    }
+
+    /**
+     * A state of the room reached by typing some lines.
+     */
+    private static class State {
+        /** a snapshot of the room */
+        private byte[] snapshot;
+
+        /** the number of turns taken to reach the state */
+        private int turns;
+
+        /** the state before the last command, or null for the first state */
+        private State previous;
+
+        /** the lines typed to get here from the previous state */
+        private String[] lines;
+
+        /** whether the room has been escaped */
+        private boolean escaped;
+
+        /** identifies the state regardless of the turns taken (see keyOf) */
+        private String key;
+
+        State(byte[] snapshot, int turns, State previous, String[] lines, boolean escaped, String key) {
+            this.snapshot = snapshot;
+            this.turns = turns;
+            this.previous = previous;
+            this.lines = lines;
+            this.escaped = escaped;
+            this.key = key;
+        }
+    }
+
+    /**
+     * Creates a solver for the rooms created by the given supplier. The supplier is
+     * called from many threads at once.
+     *
+     * @param rooms         creates a fresh room of the kind to solve
+     * @param passwords     the passwords the solver knows, by container name
+     * @param extraCommands commands to try in every state on top of unlock, open
+     *                      and combine
+     */
+    public RoomSolver(Supplier<? extends Room> rooms, Map<String, String> passwords, List<String> extraCommands) {
+        this.rooms = rooms;
+        this.passwords = new HashMap<>(passwords);
+        this.extraCommands = new ArrayList<>(extraCommands);
+        threads = Runtime.getRuntime().availableProcessors();
+        maxStates = 5_000_000;
+        metrics = new GameMetrics();
+    }
+
+    /**
+     * Returns the password of every password locked container in the room,
+     * including the ones nested inside other containers, by container name. This
+     * is what the designer of the room knows.
+     *
+     * @param room the room
+     * @return the passwords in the room by container name
+     */
+    public static Map<String, String> passwordsOf(Room room) {
+        Map<String, String> passwords = new HashMap<>();
+        for (Item item : room.getItems()) {
+            collectPasswords(item, passwords);
+        }
+        return passwords;
+    }
+
+    private static void collectPasswords(Item item, Map<String, String> passwords) {
+        if (item instanceof PasswordLockedContainer) {
+            passwords.put(item.getName(), ((PasswordLockedContainer) item).getPassword());
+        }
+        if (item instanceof Container) {
+            for (Item inside : ((Container) item).getContents()) {
+                collectPasswords(inside, passwords);
+            }
+        }
+    }
+
+    /**
+     * Sets the number of threads that expand states.
+     *
+     * @param threads the number of threads
+     */
+    public void setThreads(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("The solver needs at least one thread");
+        }
+        this.threads = threads;
+    }
+
+    /**
+     * Sets the number of states the solver explores before giving up.
+     *
+     * @param maxStates the number of states
+     */
+    public void setMaxStates(int maxStates) {
+        this.maxStates = maxStates;
+    }
+
+    /**
+     * Finds the fewest turns needed to escape the room, taking at most maxTurns
+     * turns.
+     *
+     * @param maxTurns the most turns a solution may take
+     * @return a solution, or null if the room cannot be escaped in maxTurns turns
+     * @throws IllegalStateException if more than the maximum number of states
+     *                               would have to be explored
+     */
+    public Solution solve(int maxTurns) {
+        long start = System.nanoTime();
+        Room room = rooms.get();
+        State first = new State(RoomSnapshot.toBytes(room), 0, null, new String[0], room.escaped(), keyOf(room));
+        if (first.escaped) {
+            return new Solution(0, List.of(), 1, System.nanoTime() - start);
+        }
+        Set<String> seen = ConcurrentHashMap.newKeySet();
+        seen.add(first.key);
+        AtomicInteger explored = new AtomicInteger(1);
+
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            List<State> frontier = List.of(first);
+            for (int turns = 0; turns <= maxTurns && !frontier.isEmpty(); turns++) {
+                // states that take another turn to reach, kept until every state this
+                // turn can reach for free has been found
+                List<State> nextTurn = new ArrayList<>();
+                List<State> pending = frontier;
+                while (!pending.isEmpty()) {
+                    List<State> toExpand = pending;
+                    List<State> successors = pool.submit(() -> toExpand.parallelStream()
+                            .flatMap(state -> expand(state, maxTurns).stream()).collect(Collectors.toList()))
+                            .get();
+                    pending = new ArrayList<>();
+                    for (State successor : successors) {
+                        if (successor.turns > turns) {
+                            nextTurn.add(successor);
+                        } else if (seen.add(successor.key)) {
+                            if (successor.escaped) {
+                                return solution(successor, explored.incrementAndGet(), start);
+                            }
+                            pending.add(successor);
+                            explored.incrementAndGet();
+                        }
+                    }
+                }
+                frontier = new ArrayList<>();
+                for (State successor : nextTurn) {
+                    if (seen.add(successor.key)) {
+                        if (successor.escaped) {
+                            return solution(successor, explored.incrementAndGet(), start);
+                        }
+                        frontier.add(successor);
+                        if (explored.incrementAndGet() > maxStates) {
+                            throw new IllegalStateException("Gave up after exploring " + maxStates + " states");
+                        }
+                    }
+                }
+            }
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while solving", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException("Solver failed", e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Returns the states reachable from the given state with one command, leaving
+     * out states where the room has been failed or more than maxTurns turns have
+     * been taken.
+     */
+    private List<State> expand(State state, int maxTurns) {
+        List<String[]> moves = new ArrayList<>();
+        Room room = restore(state);
+        for (Item item : room.getItems()) {
+            if (item instanceof Container && !((Container) item).getContents().isEmpty()) {
+                Container container = (Container) item;
+                String password = passwords.get(container.getName());
+                if (container.isLocked() && container instanceof PasswordLockedContainer && password != null) {
+                    moves.add(new String[] { "unlock " + container.getName(), password });
+                } else if (!container.isLocked() && !container.isOpen()) {
+                    moves.add(new String[] { "open " + container.getName() });
+                }
+            }
+        }
+        for (Recipe recipe : room.getRecipes()) {
+            List<String> ingredients = recipe.getIngredients();
+            boolean available = true;
+            for (String ingredient : ingredients) {
+                available &= room.getItem(ingredient) != null;
+            }
+            if (available) {
+                moves.add(new String[] { "combine " + String.join(" ", ingredients) });
+            }
+        }
+        for (String command : extraCommands) {
+            moves.add(new String[] { command });
+        }
+
+        List<State> successors = new ArrayList<>(moves.size());
+        for (int i = 0; i < moves.size(); i++) {
+            // each move needs its own copy of the room, except the last one which can
+            // use the room the moves were found in
+            String[] move = moves.get(i);
+            Room next = i == moves.size() - 1 ? room : restore(state);
+            boolean handled = next.getApp().processLine(move[0]);
+            for (int line = 1; line < move.length; line++) {
+                next.getApp().processLine(move[line]);
+            }
+            int turns = state.turns + (handled ? 1 : 0);
+            boolean escaped = next.escaped();
+            if (turns > maxTurns || (!escaped && next.failed())) {
+                continue;
+            }
+            successors.add(new State(RoomSnapshot.toBytes(next), turns, state, move, escaped, keyOf(next)));
+        }
+        return successors;
+    }
+
+    /**
+     * Creates a fresh room in the given state, run by an app that prints nowhere.
+     * The solver gives the app its lines directly.
+     */
+    private Room restore(State state) {
+        Room room = RoomSnapshot.fromBytes(rooms.get(), state.snapshot);
+        EscapeApp app = new EscapeApp(room, new Scanner(""), new GameOutput(OutputSink.NULL));
+        app.setMetrics(metrics);
+        return room;
+    }
+
+    /**
+     * Returns a key that identifies the state of the room regardless of the turns
+     * taken or the order of its items: every item in the room or nested inside a
+     * container, with whether it is in the room and whether it is open and locked,
+     * in order of name.
+     */
+    static String keyOf(Room room) {
+        List<String> entries = new ArrayList<>();
+        Set<Item> described = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (Item item : room.getItems()) {
+            Item top = item;
+            while (top.getContainer() != null) {
+                top = top.getContainer();
+            }
+            describe(top, room, entries, described);
+        }
+        Collections.sort(entries);
+        return String.join("\n", entries);
+    }
+
+    private static void describe(Item item, Room room, List<String> entries, Set<Item> described) {
+        if (!described.add(item)) {
+            return;
+        }
+        StringBuilder entry = new StringBuilder(item.getName());
+        entry.append(room.getItem(item.getName()) == item ? " +" : " -");
+        if (item instanceof Container) {
+            Container container = (Container) item;
+            entry.append(container.isOpen() ? 'o' : 'c').append(container.isLocked() ? 'l' : 'u');
+            for (Item inside : container.getContents()) {
+                describe(inside, room, entries, described);
+            }
+        }
+        entries.add(entry.toString());
+    }
+
+    private static Solution solution(State state, int explored, long start) {
+        List<String> lines = new ArrayList<>();
+        for (State s = state; s.previous != null; s = s.previous) {
+            for (int i = s.lines.length - 1; i >= 0; i--) {
+                lines.add(s.lines[i]);
+            }
+        }
+        Collections.reverse(lines);
+        return new Solution(state.turns, lines, explored, System.nanoTime() - start);
+    }
+
+    /**
+     * Builds the lines of a room definition (see RoomTemplate) with the given
+     * number of password locked containers nested inside each other, each also
+     * holding a decoy item, with the escape item in the innermost one.
+     *
+     * @param locks the number of locked containers
+     * @param turns the number of turns the player gets
+     * @return the lines of the room definition
+     */
+    static List<String> chainOfLocks(int locks, int turns) {
+        List<String> lines = new ArrayList<>();
+        lines.add("name chain_of_" + locks + "_locks");
+        lines.add("description A room with " + locks + " locks.");
+        lines.add("intro Every lock hides another one.");
+        lines.add("turns " + turns);
+        lines.add("escape golden_key");
+        lines.add("escaped You escaped in {turns} turns!");
+        lines.add("failed You ran out of turns.");
+        String indent = "";
+        for (int i = 1; i <= locks; i++) {
+            lines.add(indent + "locked lock_" + i + " " + (1000 + i) + " | lock number " + i);
+            indent += "  ";
+            lines.add(indent + "useless decoy_" + i + " | a decoy");
+        }
+        lines.add(indent + "key golden_key | the way out");
+        return lines;
+    }
+
+    /**
+     * Finds the fewest turns needed to escape a room, knowing every password in it,
+     * and replays the solution to check it.
+     *
+     * Usage: java RoomSolver [room-definition-file | --chain locks] [threads]
+     *
+     * Without arguments the prisoner's escape is solved, with "say 21" as an extra
+     * command. With --chain, a room with the given number of nested locks is
+     * generated and solved. The claims in the solver's notes come from these
+     * runs: "java RoomSolver" solves the prisoner's escape in 13 turns, and "java
+     * RoomSolver --chain 300" solves 300 nested locks, with the time printed.
+     *
+     * Exits with status 1 if the room cannot be escaped or the solution does not
+     * escape in the same number of turns when it is replayed, so it can be run as
+     * a check.
+     */
+    public static void main(String[] args) throws IOException {
+        Supplier<? extends Room> rooms;
+        List<String> extra = List.of();
+        int maxTurns;
+        if (args.length > 0 && args[0].equals("--chain")) {
+            int locks = Integer.parseInt(args[1]);
+            RoomTemplate template = RoomTemplate.compile(chainOfLocks(locks, 2 * locks + 10));
+            rooms = template::newRoom;
+            maxTurns = template.getMaxTurns();
+        } else if (args.length > 0) {
+            RoomTemplate template = RoomTemplate.load(Paths.get(args[0]));
+            rooms = template::newRoom;
+            maxTurns = template.getMaxTurns();
+        } else {
+            rooms = WizardLabDriver::createLab;
+            extra = List.of("say 21");
+            maxTurns = 35;
+        }
+        int threadsArg = args.length > 0 && args[0].equals("--chain") ? 2 : 1;
+
+        RoomSolver solver = new RoomSolver(rooms, passwordsOf(rooms.get()), extra);
+        if (args.length > threadsArg) {
+            solver.setThreads(Integer.parseInt(args[threadsArg]));
+        }
+        Solution solution = solver.solve(maxTurns);
+        if (solution == null) {
+            System.out.println("The room cannot be escaped in " + maxTurns + " turns.");
+            System.exit(1);
+        }
+        System.out.println("Escaped in " + solution + ", out of " + maxTurns + " allowed:");
+        for (String line : solution.getLines()) {
+            System.out.println("  " + line);
+        }
+        ReplayResult replay = new ReplayRunner(rooms).replay(solution.getLines());
+        System.out.println("Replayed: " + replay);
+        if (replay.getOutcome() != ReplayResult.Outcome.ESCAPED || replay.getTurns() != solution.getTurns()) {
+            System.out.println("The replay does not match the solution.");
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,531 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A room compiled from a room definition file. A template is parsed and checked
+ * once and never changes afterwards, so it can be shared by any number of
+ * sessions: newRoom() stamps out a fresh TemplateRoom which shares the
+ * template's description, intro, text and recipes instead of building them
+ * again. All the text is put in TextStore.shared() when the template is
+ * compiled, and rooms and items are created with its ids, so a new room does not
+ * look up or copy any text.
+ *
+ * Each room still gets its own items, because items are the room's mutable
+ * state: whether containers are open or locked, what is in them and which room
+ * they are in all change as the game is played. Creating them is cheap: each
+ * item is a few fields, and its name and text are shared.
+ *
+ * A room definition has one entry per line. Blank lines and lines starting with
+ * # are ignored, and \n in a value stands for a line break.
+ *
+ * <pre>
+ * name prisoners_escape             a name for the room
+ * description This is a ...         printed by look
+ * intro Everyone does ...           the introduction; repeat for more lines
+ * turns 35                          turns the player has before failing
+ * escape platinum_key               the room is escaped once this item is in it
+ * escaped Escaped in {turns} turns! optional message printed on escaping;
+ *                                   {turns} stands for the turns taken
+ * failed Game Over                  optional message printed on failing
+ *
+ * useless name | description
+ * text name | description | text
+ * key name | description
+ * container name [open] [locked] | description
+ * locked name password [open] | description
+ *
+ * recipe ordered|unordered ingredient1 ingredient2 ...
+ * </pre>
+ *
+ * Items are placed in the room, or inside the container above them if they are
+ * indented further than it. Every item needs a name of its own, even if it is in
+ * a different container from another one. A recipe is followed by indented lines giving the
+ * message printed when it succeeds (message ...) and the item it makes.
+ */
+public class RoomTemplate {
+    /** the name of the room */
+    private String name;
+
+    /** the room description */
+    private String description;
+
+    /** the introduction describing the scenario */
+    private String intro;
+
+    /** the id of the description in TextStore.shared() */
+    private int descriptionId;
+
+    /** the id of the introduction in TextStore.shared() */
+    private int introId;
+
+    /** the number of turns the player has before failing */
+    private int maxTurns;
+
+    /** the name of the item that escapes the room */
+    private String escapeItem;
+
+    /** printed when the room is escaped, with {turns} replaced by the turns taken */
+    private String escapedMessage;
+
+    /** printed when the room is failed */
+    private String failedMessage;
+
+    /** the items directly in the room */
+    private List<ItemDefinition> items;
+
+    /** the recipes, shared by every room created from this template */
+    private List<Recipe> recipes;
+
+    /**
+     * The definition of an item. Definitions never change once the template has
+     * been compiled.
+     */
+    static class ItemDefinition {
+        /** the kind of item (useless, text, key, container or locked) */
+        private String kind;
+
+        /** the name of the item */
+        private String name;
+
+        /** the id of the description of the item in TextStore.shared() */
+        private int description;
+
+        /** the id of the text of a text item in TextStore.shared() */
+        private int text;
+
+        /** the password of a locked container */
+        private String password;
+
+        /** whether a container starts open */
+        private boolean open;
+
+        /** whether a container starts locked */
+        private boolean locked;
+
+        /** the contents of a container */
+        private List<ItemDefinition> contents = new ArrayList<>();
+
+        /**
+         * Creates a new item from this definition, along with everything inside it.
+         *
+         * @return a new item
+         */
+        Item create() {
+            Item item;
+            switch (kind) {
+            case "text":
+                item = new TextItem(name, description, text);
+                break;
+            case "key":
+                item = new PlatinumKey(name, description);
+                break;
+            case "container":
+                item = new Container(name, description, open, locked);
+                break;
+            case "locked":
+                item = new PasswordLockedContainer(name, description, open, locked, password);
+                break;
+            default:
+                item = new UselessItem(name, description);
+                break;
+            }
+            if (item instanceof Container) {
+                for (ItemDefinition inside : contents) {
+                    ((Container) item).add(inside.create());
+                }
+            }
+            return item;
+        }
+    }
+
+    /**
+     * A recipe that prints a message, adds a new item to the room and consumes its
+     * ingredients. Template recipes have no state of their own, so one instance is
+     * shared by every room created from the template.
+     */
+    static class TemplateRecipe extends Recipe {
+        /** printed when the recipe succeeds */
+        private String message;
+
+        /** the item the recipe makes */
+        private ItemDefinition product;
+
+        TemplateRecipe(boolean orderMatters, String[] ingredients, String message, ItemDefinition product) {
+            super(orderMatters, ingredients);
+            this.message = message;
+            this.product = product;
+        }
+
+        @Override
+        public void combineInRoom(Room r) {
+            if (message != null) {
+                r.getOutput().println(message);
+            }
+            r.add(product.create());
+            removeIngredientsFromRoom(r);
+        }
+    }
+
+    private RoomTemplate() {
+        escapedMessage = "Congratulations, you have escaped in {turns} turns!";
+        failedMessage = "Game Over";
+        items = new ArrayList<>();
+        recipes = new ArrayList<>();
+    }
+
+    /**
+     * Reads and compiles a room definition file.
+     *
+     * @param path the room definition file
+     * @return the compiled template
+     * @throws IOException              if the file cannot be read
+     * @throws IllegalArgumentException if the file is not a valid room definition
+     */
+    public static RoomTemplate load(Path path) throws IOException {
+        return compile(Files.readAllLines(path));
+    }
+
+    /**
+     * Compiles the lines of a room definition.
+     *
+     * @param lines the lines of the room definition
+     * @return the compiled template
+     * @throws IllegalArgumentException if the lines are not a valid room
+     *                                  definition
+     */
+    public static RoomTemplate compile(List<String> lines) {
+        RoomTemplate template = new RoomTemplate();
+        List<String> intro = new ArrayList<>();
+        // the containers the next item may be placed in, innermost last, with their
+        // indentation
+        List<ItemDefinition> open = new ArrayList<>();
+        List<Integer> openIndents = new ArrayList<>();
+        // the recipe being defined, if any
+        String[] recipe = null;
+        int recipeIndent = -1;
+        String recipeMessage = null;
+        ItemDefinition recipeProduct = null;
+        int recipeLine = 0;
+        // the line each item in the room was defined on by name; names must be unique
+        // across the whole room, because the contents of open containers end up in
+        // the room next to everything else
+        Map<String, Integer> itemLines = new HashMap<>();
+        // the indentation of the last item and whether it can hold items
+        int lastIndent = 0;
+        boolean lastHolds = false;
+
+        for (int n = 1; n <= lines.size(); n++) {
+            String line = lines.get(n - 1);
+            String trimmed = line.trim();
+            if (trimmed.isEmpty() || trimmed.startsWith("#")) {
+                continue;
+            }
+            int indent = 0;
+            while (Character.isWhitespace(line.charAt(indent))) {
+                indent++;
+            }
+            int space = trimmed.indexOf(' ');
+            String keyword = space < 0 ? trimmed : trimmed.substring(0, space);
+            String value = space < 0 ? "" : unescape(trimmed.substring(space + 1).trim());
+
+            if (recipe != null) {
+                if (indent > recipeIndent) {
+                    if (keyword.equals("message")) {
+                        recipeMessage = value;
+                    } else if (recipeProduct == null) {
+                        recipeProduct = parseItem(keyword, value, n);
+                    } else {
+                        throw error(n, "a recipe makes only one item");
+                    }
+                    continue;
+                }
+                template.addRecipe(recipe, recipeMessage, recipeProduct, recipeLine);
+                recipe = null;
+            }
+            switch (keyword) {
+            case "name":
+                template.name = value;
+                break;
+            case "description":
+                template.description = value;
+                break;
+            case "intro":
+                intro.add(value);
+                break;
+            case "turns":
+                try {
+                    template.maxTurns = Integer.parseInt(value);
+                } catch (NumberFormatException e) {
+                    throw error(n, "turns must be a number");
+                }
+                break;
+            case "escape":
+                template.escapeItem = value;
+                break;
+            case "escaped":
+                template.escapedMessage = value;
+                break;
+            case "failed":
+                template.failedMessage = value;
+                break;
+            case "recipe":
+                recipe = value.split("\\s+");
+                recipeIndent = indent;
+                recipeMessage = null;
+                recipeProduct = null;
+                recipeLine = n;
+                break;
+            default:
+                ItemDefinition item = parseItem(keyword, value, n);
+                if (indent > lastIndent && !lastHolds) {
+                    throw error(n, "only containers can hold items");
+                }
+                lastIndent = indent;
+                lastHolds = item.kind.equals("container") || item.kind.equals("locked");
+                while (!openIndents.isEmpty() && openIndents.get(openIndents.size() - 1) >= indent) {
+                    open.remove(open.size() - 1);
+                    openIndents.remove(openIndents.size() - 1);
+                }
+                List<ItemDefinition> siblings = open.isEmpty() ? template.items
+                        : open.get(open.size() - 1).contents;
+                Integer defined = itemLines.putIfAbsent(item.name, n);
+                if (defined != null) {
+                    throw error(n, "there is already a " + item.name + " on line " + defined);
+                }
+                siblings.add(item);
+                if (lastHolds) {
+                    open.add(item);
+                    openIndents.add(indent);
+                }
+                break;
+            }
+        }
+        if (recipe != null) {
+            template.addRecipe(recipe, recipeMessage, recipeProduct, recipeLine);
+        }
+
+        template.intro = String.join("\n", intro);
+        if (template.name == null || template.description == null) {
+            throw new IllegalArgumentException("A room definition needs a name and a description");
+        }
+        if (template.maxTurns <= 0) {
+            throw new IllegalArgumentException("A room definition needs a positive number of turns");
+        }
+        if (template.escapeItem == null) {
+            throw new IllegalArgumentException("A room definition needs an escape item");
+        }
+        template.descriptionId = TextStore.shared().intern(template.description);
+        template.introId = TextStore.shared().intern(template.intro);
+        template.items = freeze(template.items);
+        template.recipes = Collections.unmodifiableList(template.recipes);
+        return template;
+    }
+
+    /**
+     * Parses an item line such as "locked cookbook pineapple | Gordon Ramsay's
+     * Cookbook".
+     */
+    private static ItemDefinition parseItem(String kind, String value, int n) {
+        String[] fields = value.split("\\|", -1);
+        String[] words = fields[0].trim().split("\\s+");
+        ItemDefinition item = new ItemDefinition();
+        item.kind = kind;
+        item.name = words[0];
+        item.description = TextStore.shared().intern(fields.length > 1 ? fields[1].trim() : "");
+        if (item.name.isEmpty()) {
+            throw error(n, "the item needs a name");
+        }
+        int flags = 1;
+        switch (kind) {
+        case "useless":
+        case "key":
+            break;
+        case "text":
+            if (fields.length < 3) {
+                throw error(n, "a text item needs its text after a second |");
+            }
+            item.text = TextStore.shared().intern(fields[2].trim());
+            break;
+        case "locked":
+            if (words.length < 2) {
+                throw error(n, "a locked container needs a password");
+            }
+            item.password = words[1];
+            item.locked = true;
+            flags = 2;
+            break;
+        case "container":
+            break;
+        default:
+            throw error(n, "unknown keyword " + kind);
+        }
+        for (int i = flags; i < words.length; i++) {
+            if (words[i].equals("open")) {
+                item.open = true;
+            } else if (words[i].equals("locked") && kind.equals("container")) {
+                item.locked = true;
+            } else {
+                throw error(n, "unexpected " + words[i]);
+            }
+        }
+        return item;
+    }
+
+    /**
+     * Adds a recipe parsed from the definition.
+     */
+    private void addRecipe(String[] words, String message, ItemDefinition product, int n) {
+        if (words.length < 1 || !(words[0].equals("ordered") || words[0].equals("unordered"))) {
+            throw error(n, "a recipe must start with ordered or unordered");
+        }
+        if (product == null) {
+            throw error(n, "the recipe does not make an item");
+        }
+        String[] ingredients = new String[words.length - 1];
+        System.arraycopy(words, 1, ingredients, 0, ingredients.length);
+        try {
+            recipes.add(new TemplateRecipe(words[0].equals("ordered"), ingredients, message, freeze(product)));
+        } catch (IllegalArgumentException e) {
+            throw error(n, e.getMessage());
+        }
+    }
+
+    /**
+     * Makes the item definitions and everything inside them unmodifiable.
+     */
+    private static List<ItemDefinition> freeze(List<ItemDefinition> definitions) {
+        for (ItemDefinition definition : definitions) {
+            freeze(definition);
+        }
+        return Collections.unmodifiableList(definitions);
+    }
+
+    /**
+     * Makes the item definition and everything inside it unmodifiable.
+     */
+    private static ItemDefinition freeze(ItemDefinition definition) {
+        definition.contents = freeze(definition.contents);
+        return definition;
+    }
+
+    /**
+     * Replaces the escape sequence \n with a line break.
+     */
+    private static String unescape(String value) {
+        return value.replace("\\n", "\n");
+    }
+
+    /**
+     * Returns an exception reporting a problem on the given line.
+     */
+    private static IllegalArgumentException error(int line, String message) {
+        return new IllegalArgumentException("Line " + line + " of the room definition: " + message);
+    }
+
+    /**
+     * Creates a new room from this template, ready for a new player.
+     *
+     * @return a new room
+     */
+    public TemplateRoom newRoom() {
+        TemplateRoom room = new TemplateRoom(this);
+        for (Recipe recipe : recipes) {
+            room.add(recipe);
+        }
+        List<Item> created = new ArrayList<>(items.size());
+        for (ItemDefinition item : items) {
+            created.add(item.create());
+        }
+        room.addAll(created);
+        return room;
+    }
+
+    /**
+     * Returns the name of the room.
+     *
+     * @return the name of the room
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns the room description.
+     *
+     * @return the room description
+     */
+    public String getDescription() {
+        return description;
+    }
+
+    /**
+     * Returns the introduction describing the scenario.
+     *
+     * @return the introduction describing the scenario
+     */
+    public String getIntro() {
+        return intro;
+    }
+
+    /**
+     * Returns the id of the room description in TextStore.shared().
+     *
+     * @return the id of the room description
+     */
+    int getDescriptionId() {
+        return descriptionId;
+    }
+
+    /**
+     * Returns the id of the introduction in TextStore.shared().
+     *
+     * @return the id of the introduction
+     */
+    int getIntroId() {
+        return introId;
+    }
+
+    /**
+     * Returns the number of turns the player has before failing.
+     *
+     * @return the number of turns the player has before failing
+     */
+    public int getMaxTurns() {
+        return maxTurns;
+    }
+
+    /**
+     * Returns the name of the item that escapes the room.
+     *
+     * @return the name of the item that escapes the room
+     */
+    public String getEscapeItem() {
+        return escapeItem;
+    }
+
+    /**
+     * Returns the message printed when the room is escaped, where {turns} stands
+     * for the number of turns taken.
+     *
+     * @return the message printed when the room is escaped, where {turns} stands
+     *         for the number of turns taken
+     */
+    public String getEscapedMessage() {
+        return escapedMessage;
+    }
+
+    /**
+     * Returns the message printed when the room is failed.
+     *
+     * @return the message printed when the room is failed
+     */
+    public String getFailedMessage() {
+        return failedMessage;
+    }
+}
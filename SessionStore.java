@@ -0,0 +1,690 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Scanner;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Keeps the games of many players, with only the recently active ones in
+ * memory.
+ *
+ * A game that has not been played for a while, or that was played the longest
+ * ago when there are more games in memory than the heap budget allows, is
+ * parked: its room is saved as a snapshot (see RoomSnapshot) at the end of a
+ * log file and its EscapeApp and room are dropped. The next time the player
+ * types a line (see acquire), the room is restored from the log and given a new
+ * EscapeApp with the same input and output, so the player does not notice. A
+ * parked WizardsLab game takes about a tenth of the memory of a live one, and
+ * less than two kilobytes of log.
+ *
+ * The heap budget is turned into a number of live games using how much memory
+ * one game of the store's kind of room takes. That is measured when the store is
+ * created (see measureSessionBytes), or can be given to the constructor.
+ *
+ * Games being played (between acquire and release) and games waiting for the
+ * player to answer a question (see EscapeApp.awaitInput) are never parked,
+ * because a snapshot does not include the question.
+ *
+ * The store only locks itself to update which games are in memory. Each game
+ * has its own lock, so saving or restoring one game only makes that game's
+ * player wait. The log is split into segment files that are written and read
+ * without locking; when most of a full segment is snapshots that are no longer
+ * needed, compact() moves the rest to the current segment and deletes it.
+ * Compaction runs in the background with the idle check (see evictIdleEvery).
+ *
+ * The log only lives as long as the store: its segments are emptied when they
+ * are created and deleted when the store is closed.
+ */
+public class SessionStore implements Closeable {
+    /**
+     * roughly how much memory a live WizardsLab game takes with its EscapeApp,
+     * used when the size of a game cannot be measured
+     */
+    public static final long DEFAULT_SESSION_BYTES = 16 * 1024;
+
+    /** segments are not written past this size, unless one snapshot is bigger */
+    private static final long SEGMENT_BYTES = 4 * 1024 * 1024;
+
+    /** the number of games created to measure the size of one */
+    private static final int MEASURED_GAMES = 32;
+
+    /** creates the room of each new game */
+    private Supplier<? extends Room> rooms;
+
+    /** the log file name; the segments are named after it with a number added */
+    private Path file;
+
+    /** roughly how much memory one live game takes */
+    private long sessionBytes;
+
+    /** the most games kept in memory at once */
+    private int maxLiveSessions;
+
+    /** how long a game can go unplayed before it is parked, in milliseconds */
+    private long idleMillis;
+
+    /** every game by id */
+    private Map<Long, Session> sessions = new ConcurrentHashMap<>();
+
+    /** locks live; held only to update it, never while a game is saved or restored */
+    private final Object lock = new Object();
+
+    /** the games in memory by id, least recently played first */
+    private LinkedHashMap<Long, Session> live = new LinkedHashMap<>(16, 0.75f, true);
+
+    /** the id of the next game */
+    private AtomicLong nextId = new AtomicLong(1);
+
+    /** the segments of the log, oldest first */
+    private List<Segment> segments = new CopyOnWriteArrayList<>();
+
+    /** the segment snapshots are written to */
+    private volatile Segment current;
+
+    /** the number of the next segment */
+    private int nextSegment;
+
+    /** locks starting a new segment */
+    private final Object segmentLock = new Object();
+
+    /** makes sure only one compaction runs at a time */
+    private final Object compactLock = new Object();
+
+    /** the number of times a game was in memory when it was acquired */
+    private LongAdder hits = new LongAdder();
+
+    /** the number of times a game had to be restored from the log */
+    private LongAdder misses = new LongAdder();
+
+    /** the number of times a game was parked */
+    private LongAdder evictions = new LongAdder();
+
+    /**
+     * One player's game. The fields that change are only changed while holding
+     * the session's own lock.
+     */
+    private static class Session {
+        /** the id of the game */
+        private long id;
+
+        /** where the player's lines come from */
+        private Scanner in;
+
+        /** where the game prints to */
+        private GameOutput out;
+
+        /** the game, or null if it is parked */
+        private EscapeApp app;
+
+        /** whether the game is being played (between acquire and release) */
+        private volatile boolean busy;
+
+        /** whether the game was removed */
+        private boolean removed;
+
+        /** when the game was last released, from System.nanoTime() */
+        private volatile long lastPlayed;
+
+        /** when the room was started (see Room.getStartedAt) */
+        private long startedAt;
+
+        /** the segment the snapshot of a parked game is in */
+        private Segment segment;
+
+        /** where the snapshot of a parked game starts in its segment */
+        private long offset;
+
+        /** the length of the snapshot of a parked game */
+        private int length;
+    }
+
+    /**
+     * One file of the log.
+     */
+    private static class Segment {
+        /** the file */
+        private Path path;
+
+        /** the open file, which is read and written at explicit positions */
+        private FileChannel channel;
+
+        /** the number of bytes handed out to writers */
+        private AtomicLong size = new AtomicLong();
+
+        /** the number of bytes of snapshots still needed, or being written */
+        private AtomicLong liveBytes = new AtomicLong();
+
+        /** whether the segment is full, so nothing more is written to it */
+        private volatile boolean sealed;
+    }
+
+    /**
+     * Creates an empty store that keeps its parked games in the given file,
+     * measuring how much memory a game of the given kind of room takes (see
+     * measureSessionBytes).
+     *
+     * @param rooms      creates the room of each new game
+     * @param file       the log file name; anything already in the segments is
+     *                   thrown away
+     * @param heapBudget roughly how much memory the live games may take, in bytes
+     * @param idleMillis how long a game can go unplayed before it is parked
+     * @throws IOException if the log cannot be opened
+     */
+    public SessionStore(Supplier<? extends Room> rooms, Path file, long heapBudget, long idleMillis)
+            throws IOException {
+        this(rooms, file, heapBudget, measureSessionBytes(rooms), idleMillis);
+    }
+
+    /**
+     * Creates an empty store that keeps its parked games in the given file.
+     *
+     * @param rooms        creates the room of each new game
+     * @param file         the log file name; anything already in the segments is
+     *                     thrown away
+     * @param heapBudget   roughly how much memory the live games may take, in
+     *                     bytes
+     * @param sessionBytes roughly how much memory one live game takes, in bytes
+     * @param idleMillis   how long a game can go unplayed before it is parked
+     * @throws IOException if the log cannot be opened
+     */
+    public SessionStore(Supplier<? extends Room> rooms, Path file, long heapBudget, long sessionBytes,
+            long idleMillis) throws IOException {
+        if (sessionBytes < 1 || heapBudget < sessionBytes) {
+            throw new IllegalArgumentException("The heap budget must leave room for at least one game");
+        }
+        this.rooms = rooms;
+        this.file = file;
+        this.sessionBytes = sessionBytes;
+        this.maxLiveSessions = (int) Math.min(Integer.MAX_VALUE, heapBudget / sessionBytes);
+        this.idleMillis = idleMillis;
+        current = newSegment();
+    }
+
+    /**
+     * Returns roughly how much memory a live game of the given kind of room takes
+     * with its EscapeApp, by creating a few games and counting the bytes this
+     * thread allocated. That includes some temporary objects, so it is a little
+     * more than the games keep. If this JVM cannot count allocations,
+     * DEFAULT_SESSION_BYTES is returned.
+     *
+     * @param rooms creates the rooms
+     * @return roughly how many bytes one game takes
+     */
+    public static long measureSessionBytes(Supplier<? extends Room> rooms) {
+        if (!(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean)) {
+            return DEFAULT_SESSION_BYTES;
+        }
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory
+                .getThreadMXBean();
+        if (!threads.isThreadAllocatedMemorySupported() || !threads.isThreadAllocatedMemoryEnabled()) {
+            return DEFAULT_SESSION_BYTES;
+        }
+        Scanner in = new Scanner("");
+        GameOutput out = new GameOutput(OutputSink.NULL);
+        // the first games also load classes and fill shared caches
+        for (int i = 0; i < MEASURED_GAMES; i++) {
+            new EscapeApp(rooms.get(), in, out);
+        }
+        List<EscapeApp> games = new ArrayList<>(MEASURED_GAMES);
+        long before = threads.getCurrentThreadAllocatedBytes();
+        for (int i = 0; i < MEASURED_GAMES; i++) {
+            games.add(new EscapeApp(rooms.get(), in, out));
+        }
+        long allocated = threads.getCurrentThreadAllocatedBytes() - before;
+        return Math.max(1, allocated / games.size());
+    }
+
+    /**
+     * Starts a new game that reads from and prints to the given input and
+     * output, and returns its id. Play it with acquire and release, and remove it
+     * when the player leaves.
+     *
+     * @param in  the input the player's lines come from
+     * @param out the output to print to
+     * @return the id of the game
+     */
+    public long open(Scanner in, GameOutput out) {
+        Session session = new Session();
+        session.id = nextId.getAndIncrement();
+        session.in = in;
+        session.out = out;
+        session.app = new EscapeApp(rooms.get(), in, out);
+        session.lastPlayed = System.nanoTime();
+        sessions.put(session.id, session);
+        synchronized (lock) {
+            live.put(session.id, session);
+        }
+        evictOverBudget();
+        return session.id;
+    }
+
+    /**
+     * Returns the game with the given id, restoring it from the log if it was
+     * parked. The game is not parked until it is released.
+     *
+     * @param id the id of the game
+     * @return the game
+     * @throws IllegalArgumentException if there is no game with the id
+     * @throws IllegalStateException    if the game is already acquired or cannot
+     *                                  be read from the log
+     */
+    public EscapeApp acquire(long id) {
+        Session session = session(id);
+        EscapeApp app;
+        synchronized (session) {
+            if (session.removed) {
+                throw new IllegalArgumentException("There is no game with id " + id);
+            }
+            if (session.busy) {
+                throw new IllegalStateException("Game " + id + " is already being played");
+            }
+            if (session.app != null) {
+                hits.increment();
+            } else {
+                misses.increment();
+                byte[] snapshot = read(session.segment, session.offset, session.length);
+                Room room = RoomSnapshot.fromBytes(rooms.get(), snapshot);
+                room.setStartedAt(session.startedAt);
+                session.app = new EscapeApp(room, session.in, session.out);
+                session.segment.liveBytes.addAndGet(-session.length);
+                session.segment = null;
+            }
+            session.busy = true;
+            app = session.app;
+            synchronized (lock) {
+                live.put(id, session);
+            }
+        }
+        evictOverBudget();
+        return app;
+    }
+
+    /**
+     * Marks the game as no longer being played, so it can be parked.
+     *
+     * @param id the id of the game
+     */
+    public void release(long id) {
+        Session session = session(id);
+        synchronized (session) {
+            session.busy = false;
+            session.lastPlayed = System.nanoTime();
+        }
+        evictOverBudget();
+    }
+
+    /**
+     * Removes a game, for example because the player left or finished.
+     *
+     * @param id the id of the game
+     */
+    public void remove(long id) {
+        Session session = sessions.remove(id);
+        if (session == null) {
+            return;
+        }
+        synchronized (session) {
+            session.removed = true;
+            if (session.segment != null) {
+                session.segment.liveBytes.addAndGet(-session.length);
+                session.segment = null;
+            }
+            synchronized (lock) {
+                live.remove(id);
+            }
+        }
+    }
+
+    private Session session(long id) {
+        Session session = sessions.get(id);
+        if (session == null) {
+            throw new IllegalArgumentException("There is no game with id " + id);
+        }
+        return session;
+    }
+
+    /**
+     * Parks the games played the longest ago while there are more games in memory
+     * than the budget allows. The games are picked while holding the store's
+     * lock, but saved after letting go of it.
+     */
+    private void evictOverBudget() {
+        List<Session> victims = new ArrayList<>();
+        synchronized (lock) {
+            int excess = live.size() - maxLiveSessions;
+            for (Session session : live.values()) {
+                if (victims.size() >= excess) {
+                    break;
+                }
+                if (!session.busy) {
+                    victims.add(session);
+                }
+            }
+        }
+        for (Session session : victims) {
+            park(session);
+        }
+    }
+
+    /**
+     * Parks every game that has not been played for longer than the idle time,
+     * and then compacts the log.
+     *
+     * @return the number of games parked
+     */
+    public int evictIdle() {
+        long now = System.nanoTime();
+        List<Session> idle = new ArrayList<>();
+        synchronized (lock) {
+            for (Session session : live.values()) {
+                if (now - session.lastPlayed < idleMillis * 1_000_000) {
+                    // the rest were played more recently
+                    break;
+                }
+                idle.add(session);
+            }
+        }
+        int parked = 0;
+        for (Session session : idle) {
+            if (park(session)) {
+                parked++;
+            }
+        }
+        compact();
+        return parked;
+    }
+
+    /**
+     * Saves the game to the log and drops it, unless it is being played, is
+     * waiting for an answer, or was parked or removed already.
+     *
+     * @return true if the game was parked
+     */
+    private boolean park(Session session) {
+        synchronized (session) {
+            if (session.removed || session.busy || session.app == null || session.app.isAwaitingInput()) {
+                return false;
+            }
+            Room room = session.app.getRoom();
+            byte[] snapshot;
+            try {
+                snapshot = RoomSnapshot.toBytes(room);
+            } catch (IllegalArgumentException e) {
+                // the room has items that cannot be saved, so it stays in memory
+                return false;
+            }
+            write(session, snapshot);
+            session.startedAt = room.getStartedAt();
+            room.setApp(null);
+            session.app = null;
+            evictions.increment();
+            synchronized (lock) {
+                live.remove(session.id);
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Writes the snapshot to the current segment and records where it is in the
+     * session. The caller holds the session's lock.
+     */
+    private void write(Session session, byte[] snapshot) {
+        while (true) {
+            Segment segment = current;
+            // count the bytes as needed before writing, so the segment is not
+            // deleted under the write (see compact)
+            segment.liveBytes.addAndGet(snapshot.length);
+            if (segment.sealed) {
+                segment.liveBytes.addAndGet(-snapshot.length);
+                continue;
+            }
+            long offset = segment.size.getAndAdd(snapshot.length);
+            if (offset > 0 && offset + snapshot.length > SEGMENT_BYTES) {
+                segment.liveBytes.addAndGet(-snapshot.length);
+                startNewSegment(segment);
+                continue;
+            }
+            try {
+                ByteBuffer buffer = ByteBuffer.wrap(snapshot);
+                while (buffer.hasRemaining()) {
+                    segment.channel.write(buffer, offset + buffer.position());
+                }
+            } catch (IOException e) {
+                segment.liveBytes.addAndGet(-snapshot.length);
+                throw new IllegalStateException("Cannot write to " + segment.path, e);
+            }
+            session.segment = segment;
+            session.offset = offset;
+            session.length = snapshot.length;
+            return;
+        }
+    }
+
+    private byte[] read(Segment segment, long offset, int length) {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        try {
+            while (buffer.hasRemaining()) {
+                if (segment.channel.read(buffer, offset + buffer.position()) < 0) {
+                    throw new IOException("unexpected end of file");
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot read from " + segment.path, e);
+        }
+        return buffer.array();
+    }
+
+    /**
+     * Seals the full segment and starts a new one, unless another writer already
+     * did.
+     */
+    private void startNewSegment(Segment full) {
+        synchronized (segmentLock) {
+            if (current != full) {
+                return;
+            }
+            try {
+                Segment segment = newSegment();
+                full.sealed = true;
+                current = segment;
+            } catch (IOException e) {
+                throw new IllegalStateException("Cannot start a new segment of " + file, e);
+            }
+        }
+    }
+
+    private Segment newSegment() throws IOException {
+        synchronized (segmentLock) {
+            Segment segment = new Segment();
+            segment.path = file.resolveSibling(file.getFileName() + "." + nextSegment++);
+            segment.channel = FileChannel.open(segment.path, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            segments.add(segment);
+            return segment;
+        }
+    }
+
+    /**
+     * Deletes the full segments that no parked game needs any more, after moving
+     * the snapshots out of the full segments that are mostly not needed. Only the
+     * games being moved are locked, one at a time.
+     */
+    public void compact() {
+        synchronized (compactLock) {
+            for (Segment segment : segments) {
+                if (!segment.sealed) {
+                    continue;
+                }
+                if (segment.liveBytes.get() > 0 && segment.liveBytes.get() * 2 < segment.size.get()) {
+                    for (Session session : sessions.values()) {
+                        synchronized (session) {
+                            if (session.segment == segment) {
+                                int length = session.length;
+                                write(session, read(segment, session.offset, length));
+                                segment.liveBytes.addAndGet(-length);
+                            }
+                        }
+                    }
+                }
+                if (segment.liveBytes.get() == 0) {
+                    segments.remove(segment);
+                    try {
+                        segment.channel.close();
+                        Files.deleteIfExists(segment.path);
+                    } catch (IOException e) {
+                        System.err.println("Cannot delete " + segment.path + ": " + e);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Parks idle games and compacts the log every period, on a daemon thread,
+     * until the returned future is cancelled.
+     *
+     * @param period the time between checks
+     * @param unit   the unit of the period
+     * @return the future to cancel to stop checking
+     */
+    public ScheduledFuture<?> evictIdleEvery(long period, TimeUnit unit) {
+        ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "session-evictions");
+            thread.setDaemon(true);
+            return thread;
+        });
+        return timer.scheduleAtFixedRate(this::evictIdle, period, period, unit);
+    }
+
+    /**
+     * Returns the number of games in the store.
+     *
+     * @return the number of games
+     */
+    public int getSessionCount() {
+        return sessions.size();
+    }
+
+    /**
+     * Returns the number of games in memory.
+     *
+     * @return the number of games in memory
+     */
+    public int getLiveCount() {
+        synchronized (lock) {
+            return live.size();
+        }
+    }
+
+    /**
+     * Returns roughly how much memory one live game takes, as measured or given
+     * to the constructor.
+     *
+     * @return roughly how many bytes one game takes
+     */
+    public long getSessionBytes() {
+        return sessionBytes;
+    }
+
+    /**
+     * Returns the most games kept in memory at once, worked out from the heap
+     * budget.
+     *
+     * @return the most games kept in memory at once
+     */
+    public int getMaxLiveSessions() {
+        return maxLiveSessions;
+    }
+
+    /**
+     * Returns the number of bytes in the segments of the log.
+     *
+     * @return the size of the log
+     */
+    public long getLogSize() {
+        long size = 0;
+        for (Segment segment : segments) {
+            size += segment.size.get();
+        }
+        return size;
+    }
+
+    /**
+     * Returns the number of segment files in the log.
+     *
+     * @return the number of segments
+     */
+    public int getSegmentCount() {
+        return segments.size();
+    }
+
+    /**
+     * Returns the number of times a game was in memory when it was acquired.
+     *
+     * @return the number of hits
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * Returns the number of times a game had to be restored from the log.
+     *
+     * @return the number of misses
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * Returns the number of times a game was parked.
+     *
+     * @return the number of evictions
+     */
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * Returns the fraction of acquires that found the game in memory.
+     *
+     * @return the hit rate between 0 and 1, or 0 if nothing was acquired
+     */
+    public double getHitRate() {
+        long hit = hits.sum();
+        long total = hit + misses.sum();
+        return total == 0 ? 0 : (double) hit / total;
+    }
+
+    /**
+     * Closes and deletes the log. The parked games are lost.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (compactLock) {
+            for (Segment segment : segments) {
+                segment.channel.close();
+                Files.deleteIfExists(segment.path);
+            }
+            segments.clear();
+        }
+    }
+}
@@ -0,0 +1,166 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Scanner;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Checks that parking games in a SessionStore does not change what they print,
+ * and prints the measured size of a game.
+ *
+ * Every game plays the walkthrough of the prisoner's escape, and what it prints
+ * must be byte for byte what playing it straight through without a store prints.
+ * The store is given a heap budget of two games, so nearly every line restores a
+ * parked game.
+ *
+ * - Interleaved: many games are played one line each in turn on one thread.
+ * - Concurrent: several threads each play games one after another, while a
+ *   sweeper thread parks every idle game over and over.
+ *
+ * Usage: java SessionStoreTester [games] [threads] [games-per-thread]
+ *
+ * The defaults are 50 interleaved games, and 8 threads playing 40 games each.
+ * Exits with status 1 if any game prints something different.
+ */
+public class SessionStoreTester {
+    private static final List<String> WALKTHROUGH = ReplayRunner.WIZARDS_LAB_WALKTHROUGH;
+
+    /**
+     * Plays the walkthrough in a game of its own and returns what it printed.
+     */
+    private static String playDirectly() {
+        ByteArrayOutputStream printed = new ByteArrayOutputStream();
+        GameOutput out = new GameOutput(new StreamSink(printed));
+        EscapeApp app = new EscapeApp(WizardLabDriver.createLab(), new Scanner(String.join("\n", WALKTHROUGH)), out);
+        app.setMetrics(new GameMetrics());
+        app.setLeaderboard(new Leaderboard(Leaderboard.DEFAULT_SIZE));
+        app.runGame();
+        out.flush();
+        return printed.toString();
+    }
+
+    /**
+     * Creates a store of prisoner's escapes with room for two games in memory.
+     */
+    private static SessionStore newStore(long idleMillis) throws IOException {
+        Path file = Files.createTempFile("session-test", ".log");
+        Files.delete(file);
+        long sessionBytes = SessionStore.measureSessionBytes(WizardLabDriver::createLab);
+        return new SessionStore(WizardLabDriver::createLab, file, 2 * sessionBytes, sessionBytes, idleMillis);
+    }
+
+    /**
+     * Plays the games one line each in turn and returns the number whose output
+     * differs from the expected one.
+     */
+    private static int interleaved(int games, String expected) throws IOException {
+        SessionStore store = newStore(60_000);
+        try {
+            long[] ids = new long[games];
+            ByteArrayOutputStream[] printed = new ByteArrayOutputStream[games];
+            GameOutput[] outs = new GameOutput[games];
+            boolean[] over = new boolean[games];
+            for (int i = 0; i < games; i++) {
+                printed[i] = new ByteArrayOutputStream();
+                outs[i] = new GameOutput(new StreamSink(printed[i]));
+                ids[i] = store.open(new Scanner(""), outs[i]);
+                store.acquire(ids[i]).startGame();
+                store.release(ids[i]);
+            }
+            for (String line : WALKTHROUGH) {
+                for (int i = 0; i < games; i++) {
+                    if (!over[i]) {
+                        over[i] = store.acquire(ids[i]).playLine(line);
+                        store.release(ids[i]);
+                    }
+                }
+            }
+            int different = 0;
+            for (int i = 0; i < games; i++) {
+                outs[i].flush();
+                if (!printed[i].toString().equals(expected)) {
+                    different++;
+                }
+            }
+            System.out.printf("interleaved: %d games, %d printed something different, %d hits, %d misses, "
+                    + "%d evictions%n", games, different, store.getHits(), store.getMisses(), store.getEvictions());
+            return different;
+        } finally {
+            store.close();
+        }
+    }
+
+    /**
+     * Plays games on several threads while another thread keeps parking idle
+     * games, and returns the number whose output differs from the expected one.
+     */
+    private static int concurrent(int threads, int gamesPerThread, String expected)
+            throws IOException, InterruptedException {
+        SessionStore store = newStore(0);
+        AtomicInteger different = new AtomicInteger();
+        Thread sweeper = new Thread(() -> {
+            while (!Thread.currentThread().isInterrupted()) {
+                store.evictIdle();
+            }
+        }, "sweeper");
+        try {
+            sweeper.start();
+            List<Thread> players = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                Thread player = new Thread(() -> {
+                    for (int game = 0; game < gamesPerThread; game++) {
+                        ByteArrayOutputStream printed = new ByteArrayOutputStream();
+                        GameOutput out = new GameOutput(new StreamSink(printed));
+                        long id = store.open(new Scanner(""), out);
+                        store.acquire(id).startGame();
+                        store.release(id);
+                        for (String line : WALKTHROUGH) {
+                            boolean over = store.acquire(id).playLine(line);
+                            store.release(id);
+                            if (over) {
+                                break;
+                            }
+                        }
+                        store.remove(id);
+                        out.flush();
+                        if (!printed.toString().equals(expected)) {
+                            different.incrementAndGet();
+                        }
+                    }
+                }, "player-" + t);
+                players.add(player);
+                player.start();
+            }
+            for (Thread player : players) {
+                player.join();
+            }
+        } finally {
+            sweeper.interrupt();
+            sweeper.join();
+            store.close();
+        }
+        System.out.printf("concurrent: %d threads playing %d games each, %d printed something different, "
+                + "%d hits, %d misses, %d evictions%n", threads, gamesPerThread, different.get(), store.getHits(),
+                store.getMisses(), store.getEvictions());
+        return different.get();
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int games = args.length > 0 ? Integer.parseInt(args[0]) : 50;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+        int gamesPerThread = args.length > 2 ? Integer.parseInt(args[2]) : 40;
+
+        System.out.printf("measured game size: %d bytes for the prisoner's escape, %d for the hallway template%n",
+                SessionStore.measureSessionBytes(WizardLabDriver::createLab),
+                SessionStore.measureSessionBytes(RoomTemplate.load(Paths.get("hallway.room"))::newRoom));
+        String expected = playDirectly();
+        int different = interleaved(games, expected) + concurrent(threads, gamesPerThread, expected);
+        if (different > 0) {
+            System.exit(1);
+        }
+    }
+}
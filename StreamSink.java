@@ -0,0 +1,43 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A sink that encodes text as UTF-8 and writes it to an OutputStream, such as
+ * System.out or a socket.
+ */
+public class StreamSink implements OutputSink {
+    /** encodes and buffers the text until it is flushed */
+    private Writer writer;
+
+    /**
+     * Creates a sink that writes to the given stream.
+     * 
+     * @param stream the stream to write to
+     */
+    public StreamSink(OutputStream stream) {
+        writer = new BufferedWriter(new OutputStreamWriter(stream, StandardCharsets.UTF_8));
+    }
+
+    @Override
+    public void write(CharSequence text) {
+        try {
+            writer.append(text);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void flush() {
+        try {
+            writer.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,136 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * A room created from a RoomTemplate. The room is escaped once the template's
+ * escape item is in it and failed once the player has used up the template's
+ * turns, like WizardsLab.
+ */
+public class TemplateRoom extends Room {
+    /** the template the room was created from */
+    private RoomTemplate template;
+
+    /** the number of turns the player has taken */
+    private int numTurns;
+
+    /** whether the escape item is in the room, kept up to date by onRoomEvent */
+    private boolean hasEscapeItem;
+
+    /** whether the player has run out of turns, kept up to date by onRoomEvent */
+    private boolean outOfTurns;
+
+    /**
+     * Creates an empty room with the template's description and intro. Use
+     * RoomTemplate.newRoom() to create a room with the template's items and
+     * recipes.
+     * 
+     * @param template the template the room is created from
+     */
+    TemplateRoom(RoomTemplate template) {
+        super(template.getDescriptionId(), template.getIntroId());
+        this.template = template;
+        addListener(this::onRoomEvent);
+    }
+
+    /**
+     * returns the template the room was created from.
+     * 
+     * @return the template the room was created from
+     */
+    public RoomTemplate getTemplate() {
+        return template;
+    }
+
+    /**
+     * returns the name of the template, so rooms created from the same template
+     * share a leaderboard.
+     * 
+     * @return the name of the template
+     */
+    @Override
+    public String getName() {
+        return template.getName();
+    }
+
+    /**
+     * returns the number of turns the player has taken.
+     * 
+     * @return the number of turns the player has taken
+     */
+    public int getNumTurns() {
+        return numTurns;
+    }
+
+    @Override
+    protected void writeState(DataOutput out) throws IOException {
+        out.writeInt(numTurns);
+    }
+
+    @Override
+    protected void readState(DataInput in) throws IOException {
+        numTurns = in.readInt();
+        outOfTurns = numTurns >= template.getMaxTurns();
+    }
+
+    @Override
+    public void printRoomPrompt() {
+        getOutput().println("You have taken " + numTurns + " turns. You have " + (template.getMaxTurns() - numTurns)
+                + " turns left to escape.");
+    }
+
+    @Override
+    public void onCommandAttempted(String command, boolean handled) {
+        if (handled) {
+            numTurns++;
+            publish(RoomEvent.TURN_CONSUMED, command);
+        }
+    }
+
+    /**
+     * Keeps the escape and fail conditions up to date as the room changes, so that
+     * escaped() and failed() do not have to look at the room.
+     * 
+     * @param event   what changed
+     * @param subject the item, recipe or command the event is about
+     */
+    private void onRoomEvent(RoomEvent event, Object subject) {
+        switch (event) {
+        case ITEM_ADDED:
+        case ITEM_REMOVED:
+            if (((Item) subject).getName().equals(template.getEscapeItem())) {
+                hasEscapeItem = getItem(template.getEscapeItem()) != null;
+            }
+            break;
+        case TURN_CONSUMED:
+            outOfTurns = numTurns >= template.getMaxTurns();
+            break;
+        default:
+            break;
+        }
+    }
+
+    @Override
+    public boolean escaped() {
+        return hasEscapeItem;
+    }
+
+    @Override
+    public void onEscaped() {
+        getMetrics().recordEscape(numTurns);
+        getLeaderboard().recordEscape(getName(), numTurns, getElapsedMillis());
+        getOutput().println(template.getEscapedMessage().replace("{turns}", String.valueOf(numTurns)));
+    }
+
+    @Override
+    public boolean failed() {
+        return outOfTurns;
+    }
+
+    @Override
+    public void onFailed() {
+        getMetrics().recordFailure(numTurns);
+        getLeaderboard().recordFailure(getName(), numTurns);
+        getOutput().println(template.getFailedMessage());
+    }
+}
@@ -1,13 +1,36 @@
 public class TextItem extends Item{
-    String text;
+    /** the id of the text printed when the item is used, in TextStore.shared() */
+    private int text;
 
     public TextItem(String name, String description, String text){
+        super(name, description);
+        this.text = TextStore.shared().intern(text);
+    }
+
+    /**
+     * Creates a text item whose description and text are already in
+     * TextStore.shared() (see Item(String, int)).
+     * 
+     * @param name        the name of the item
+     * @param description the id of the description in TextStore.shared()
+     * @param text        the id of the text in TextStore.shared()
+     */
+    public TextItem(String name, int description, int text){
         super(name, description);
         this.text = text;
     }
 
+    /**
+     * returns the text printed when the item is used.
+     * 
+     * @return the text printed when the item is used
+     */
+    public String getText() {
+        return TextStore.shared().get(text);
+    }
+
     @Override
     public void use() {
-        System.out.println(text);
+        getOutput().printlnText(text);
     }
 }
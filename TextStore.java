@@ -0,0 +1,261 @@
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A shared, read-only store for the long pieces of text in the game: item
+ * descriptions, room descriptions and intros, and the text of TextItems.
+ *
+ * Each distinct text is stored once, as UTF-8 bytes in a large byte array (an
+ * arena), and is referred to by an int id. Every session that creates the same
+ * room gets the same ids, so a thousand sessions hold one copy of the text
+ * instead of a thousand. The text only becomes a String again when something
+ * asks for it with get(id); printing it with GameOutput.printlnText(id) copies
+ * it straight from the arena into the output.
+ *
+ * Texts are never removed. Only adding a new text is synchronized: reading text,
+ * and interning a text that is already stored (which is what almost every call
+ * does once the rooms have been loaded), does not lock.
+ */
+public class TextStore {
+    /** the id of a null text */
+    public static final int NULL = -1;
+
+    /** the size of each block of the arena; longer texts get a block of their own */
+    private static final int BLOCK_SIZE = 64 * 1024;
+
+    /** the store shared by every session in this JVM */
+    private static final TextStore SHARED = new TextStore();
+
+    /** the blocks of the arena */
+    private volatile byte[][] blocks = new byte[16][];
+
+    /** the block each text is in, by id */
+    private volatile int[] textBlocks = new int[256];
+
+    /** where each text starts in its block, by id */
+    private volatile int[] starts = new int[256];
+
+    /** the length of each text in bytes, by id */
+    private volatile int[] lengths = new int[256];
+
+    /**
+     * the number of texts stored, written last when a text is added so readers
+     * see everything written before it
+     */
+    private volatile int count;
+
+    /** the number of blocks in use */
+    private int blockCount;
+
+    /** the number of bytes used in the last block */
+    private int used = BLOCK_SIZE;
+
+    /** the total number of bytes of text stored */
+    private long totalBytes;
+
+    /**
+     * A hash table of ids plus one (0 is an empty slot), used to find texts that
+     * are already stored. It is only changed while holding the lock, and is
+     * replaced (not changed in place) when it grows.
+     */
+    private volatile int[] table = new int[512];
+
+    /**
+     * Returns the store shared by every session in this JVM.
+     *
+     * @return the shared store
+     */
+    public static TextStore shared() {
+        return SHARED;
+    }
+
+    /**
+     * Stores the text if it is not stored already and returns its id.
+     *
+     * @param text the text to store (may be null)
+     * @return the id of the text, or NULL if the text is null
+     */
+    public int intern(String text) {
+        if (text == null) {
+            return NULL;
+        }
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        int hash = hash(bytes, 0, bytes.length);
+        int id = find(bytes, hash);
+        return id != NULL ? id : insert(bytes, hash);
+    }
+
+    /**
+     * Looks for the text without locking. A text that is being added at the same
+     * time may not be found, which is fine because insert looks again while
+     * holding the lock.
+     *
+     * @return the id of the text, or NULL if it was not found
+     */
+    private int find(byte[] bytes, int hash) {
+        int[] table = this.table;
+        int mask = table.length - 1;
+        for (int slot = hash & mask;; slot = (slot + 1) & mask) {
+            int id = table[slot] - 1;
+            // reading count makes the text's arrays visible; an id past it is not
+            // safe to read yet
+            if (id < 0 || id >= count) {
+                return NULL;
+            }
+            if (matches(id, bytes)) {
+                return id;
+            }
+        }
+    }
+
+    /**
+     * Stores the text if another thread has not stored it in the meantime and
+     * returns its id.
+     */
+    private synchronized int insert(byte[] bytes, int hash) {
+        int mask = table.length - 1;
+        for (int slot = hash & mask;; slot = (slot + 1) & mask) {
+            int id = table[slot] - 1;
+            if (id < 0) {
+                id = add(bytes);
+                table[slot] = id + 1;
+                if (count * 2 > table.length) {
+                    rehash();
+                }
+                return id;
+            }
+            if (matches(id, bytes)) {
+                return id;
+            }
+        }
+    }
+
+    private boolean matches(int id, byte[] bytes) {
+        return lengths[id] == bytes.length && Arrays.equals(blocks[textBlocks[id]], starts[id],
+                starts[id] + bytes.length, bytes, 0, bytes.length);
+    }
+
+    /**
+     * Copies the bytes into the arena and returns the new text's id.
+     */
+    private int add(byte[] bytes) {
+        int id = count;
+        if (id == starts.length) {
+            textBlocks = Arrays.copyOf(textBlocks, id * 2);
+            starts = Arrays.copyOf(starts, id * 2);
+            lengths = Arrays.copyOf(lengths, id * 2);
+        }
+        if (bytes.length > BLOCK_SIZE - used) {
+            if (blockCount == blocks.length) {
+                blocks = Arrays.copyOf(blocks, blockCount * 2);
+            }
+            blocks[blockCount++] = new byte[Math.max(BLOCK_SIZE, bytes.length)];
+            used = 0;
+        }
+        byte[] block = blocks[blockCount - 1];
+        System.arraycopy(bytes, 0, block, used, bytes.length);
+        textBlocks[id] = blockCount - 1;
+        starts[id] = used;
+        lengths[id] = bytes.length;
+        used += bytes.length;
+        totalBytes += bytes.length;
+        count = id + 1;
+        return id;
+    }
+
+    /**
+     * Doubles the size of the hash table.
+     */
+    private void rehash() {
+        int[] old = table;
+        int[] grown = new int[old.length * 2];
+        int mask = grown.length - 1;
+        for (int entry : old) {
+            if (entry != 0) {
+                int id = entry - 1;
+                int slot = hash(blocks[textBlocks[id]], starts[id], starts[id] + lengths[id]) & mask;
+                while (grown[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                grown[slot] = entry;
+            }
+        }
+        // readers only ever see the whole new table
+        table = grown;
+    }
+
+    private static int hash(byte[] bytes, int from, int to) {
+        int hash = 1;
+        for (int i = from; i < to; i++) {
+            hash = 31 * hash + bytes[i];
+        }
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * Returns the text with the given id as a new String.
+     *
+     * @param id the id of the text
+     * @return the text, or null if the id is NULL
+     */
+    public String get(int id) {
+        if (id == NULL) {
+            return null;
+        }
+        checkId(id);
+        return new String(blocks[textBlocks[id]], starts[id], lengths[id], StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Appends the text with the given id to the builder without making a String
+     * first. Appends "null" if the id is NULL, like StringBuilder.append(null).
+     *
+     * @param id  the id of the text
+     * @param out where to append the text
+     */
+    public void appendTo(int id, StringBuilder out) {
+        if (id == NULL) {
+            out.append((String) null);
+            return;
+        }
+        checkId(id);
+        byte[] block = blocks[textBlocks[id]];
+        int start = starts[id];
+        int end = start + lengths[id];
+        for (int i = start; i < end; i++) {
+            if (block[i] < 0) {
+                // not plain ASCII, so let the decoder handle the rest
+                out.append(new String(block, i, end - i, StandardCharsets.UTF_8));
+                return;
+            }
+            out.append((char) block[i]);
+        }
+    }
+
+    /**
+     * Reads count first, so the arrays read afterwards include the text.
+     */
+    private void checkId(int id) {
+        if (id < 0 || id >= count) {
+            throw new IllegalArgumentException("There is no text with id " + id);
+        }
+    }
+
+    /**
+     * Returns the number of distinct texts stored.
+     *
+     * @return the number of distinct texts stored
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Returns the number of bytes of text stored.
+     *
+     * @return the number of bytes of text stored
+     */
+    public synchronized long getTotalBytes() {
+        return totalBytes;
+    }
+}
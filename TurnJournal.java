@@ -0,0 +1,545 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Records every line a session processes in a memory-mapped file, so that the
+ * session can be rebuilt after the JVM crashes.
+ *
+ * The journal starts with a snapshot of the room (see RoomSnapshot) followed by
+ * one record per line: the line, whether it was handled (which decides whether
+ * it used up a turn) and the room events it caused. To rebuild a session, the
+ * latest snapshot is restored and the lines after it are replayed. When the
+ * file gets half full, it is replaced by a new one that starts with a fresh
+ * snapshot, so the journal never holds more than one snapshot and a short tail.
+ *
+ * Records are written straight into the mapped file, so they survive the JVM
+ * crashing as soon as they are written. Surviving the whole machine crashing
+ * needs the file to be forced to disk, which is slow, so it is done once every
+ * groupCommit records (group commit) and when the journal is closed.
+ *
+ * Format (all numbers big-endian, strings as an int length followed by that
+ * many bytes of UTF-8, so lines and names of any length can be recorded):
+ *
+ * <pre>
+ * int     MAGIC
+ * short   VERSION
+ * records, each:
+ *   int   length of the type and payload (0 marks the end of the journal)
+ *   int   CRC-32 of the type and payload
+ *   byte  type (SNAPSHOT or TURN)
+ *   ...   SNAPSHOT: the snapshot
+ *         TURN: bool handled, string line, int number of events, then each
+ *               event as byte RoomEvent ordinal and string subject
+ * </pre>
+ *
+ * A record that is cut short or whose checksum does not match is treated as the
+ * end of the journal.
+ */
+public class TurnJournal implements Closeable {
+    /** the first four bytes of every journal ("ESJL") */
+    public static final int MAGIC = 0x45534a4c;
+
+    /** the version of the format written by this class */
+    public static final short VERSION = 2;
+
+    /** the size of the header before the first record */
+    private static final int HEADER_SIZE = 6;
+
+    /** the size of the length and checksum before each record */
+    private static final int RECORD_HEADER_SIZE = 8;
+
+    /** the record types */
+    private static final byte SNAPSHOT = 1, TURN = 2;
+
+    /** the journal file */
+    private Path file;
+
+    /** the size the file is mapped at */
+    private int segmentSize;
+
+    /** the number of records written between forcing the file to disk */
+    private int groupCommit;
+
+    /** the file that is mapped, which is a temporary file during a checkpoint */
+    private Path mappedFile;
+
+    /** the channel the file is mapped through */
+    private FileChannel channel;
+
+    /** the mapped file */
+    private MappedByteBuffer buffer;
+
+    /** the number of records written since the file was last forced to disk */
+    private int uncommitted;
+
+    /** the app whose lines are recorded, or null if none is attached */
+    private EscapeApp app;
+
+    /** whether the journal is replaying lines, which are not recorded again */
+    private boolean replaying;
+
+    /**
+     * whether the journal should start again with a snapshot as soon as no handler
+     * is waiting for input
+     */
+    private boolean checkpointPending;
+
+    /** listens to the room for the events each line causes */
+    private RoomListener listener = this::onRoomEvent;
+
+    /** the events caused by the line being processed, encoded as a record tail */
+    private Record events = new Record();
+
+    /** the number of events in events */
+    private int eventCount;
+
+    /** the record being written, reused for every record */
+    private Record record = new Record();
+
+    /** computes the checksum of each record */
+    private CRC32 crc = new CRC32();
+
+    /**
+     * A buffer for building records that lets the journal copy out of it without
+     * making a new array for every record.
+     */
+    private static class Record extends ByteArrayOutputStream {
+        /** writes into this buffer */
+        private DataOutputStream data = new DataOutputStream(this);
+
+        Record() {
+            super(256);
+        }
+
+        byte[] array() {
+            return buf;
+        }
+    }
+
+    /**
+     * Opens the journal in the given file, creating it if it does not exist, with a
+     * 4 MB segment and group commit every 64 records.
+     *
+     * @param file the journal file
+     * @throws IOException if the file cannot be opened or is not a journal
+     */
+    public TurnJournal(Path file) throws IOException {
+        this(file, 4 << 20, 64);
+    }
+
+    /**
+     * Opens the journal in the given file, creating it if it does not exist.
+     *
+     * @param file        the journal file
+     * @param segmentSize the size the file is mapped at, in bytes
+     * @param groupCommit the number of records written between forcing the file
+     *                    to disk
+     * @throws IOException if the file cannot be opened or is not a journal
+     */
+    public TurnJournal(Path file, int segmentSize, int groupCommit) throws IOException {
+        if (segmentSize < 1024 || groupCommit < 1) {
+            throw new IllegalArgumentException("The segment must be at least 1 KB and the group at least 1 record");
+        }
+        this.file = file;
+        this.segmentSize = segmentSize;
+        this.groupCommit = groupCommit;
+        map(file);
+        if (buffer.getInt(0) == 0) {
+            buffer.putInt(0, MAGIC);
+            buffer.putShort(4, VERSION);
+        } else if (buffer.getInt(0) != MAGIC) {
+            throw new IOException(file + " is not a turn journal");
+        } else if (buffer.getShort(4) != VERSION) {
+            throw new IOException("Unsupported turn journal version " + buffer.getShort(4));
+        }
+        buffer.position(HEADER_SIZE);
+        while (nextRecord() != null) {
+            // skip to the end of the journal
+        }
+    }
+
+    /**
+     * Maps the given file, at least segmentSize bytes long.
+     */
+    private void map(Path path) throws IOException {
+        mappedFile = path;
+        channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                StandardOpenOption.CREATE);
+        long size = Math.max(channel.size(), segmentSize);
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException(path + " is too large to be a turn journal");
+        }
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+    }
+
+    /**
+     * Returns the record at the buffer's position, with its type first, and moves
+     * past it, or returns null and leaves the position alone if the journal ends
+     * there.
+     */
+    private ByteBuffer nextRecord() {
+        int start = buffer.position();
+        if (buffer.remaining() < RECORD_HEADER_SIZE) {
+            return null;
+        }
+        int length = buffer.getInt(start);
+        if (length <= 0 || length > buffer.remaining() - RECORD_HEADER_SIZE) {
+            return null;
+        }
+        ByteBuffer body = buffer.duplicate();
+        body.position(start + RECORD_HEADER_SIZE).limit(start + RECORD_HEADER_SIZE + length);
+        crc.reset();
+        crc.update(body.duplicate());
+        if ((int) crc.getValue() != buffer.getInt(start + 4)) {
+            return null;
+        }
+        buffer.position(start + RECORD_HEADER_SIZE + length);
+        return body;
+    }
+
+    /**
+     * Rebuilds a session from the journal: the latest snapshot is restored into
+     * the app's room and the lines recorded after it are played again without
+     * printing anything. The lines were already counted in the metrics and the
+     * leaderboard when they were first played, so they are played again into
+     * throwaway ones. The app's room must be freshly created, of the same kind as
+     * the room that was recorded. Each line must be handled the same way and
+     * cause the same room events as when it was recorded, otherwise the rebuilt
+     * session would quietly differ from the one that crashed.
+     *
+     * @param app the app to rebuild
+     * @return the number of lines played again, or -1 if the journal was empty
+     * @throws IllegalStateException if playing a line again does not do what it
+     *                               did when it was recorded
+     */
+    public int recover(EscapeApp app) {
+        buffer.position(HEADER_SIZE);
+        ByteBuffer snapshot = null;
+        List<ByteBuffer> turns = new ArrayList<>();
+        for (ByteBuffer body = nextRecord(); body != null; body = nextRecord()) {
+            if (body.get() == SNAPSHOT) {
+                snapshot = body;
+                turns.clear();
+            } else {
+                turns.add(body);
+            }
+        }
+        if (snapshot == null && turns.isEmpty()) {
+            return -1;
+        }
+        if (snapshot != null) {
+            byte[] bytes = new byte[snapshot.remaining()];
+            snapshot.get(bytes);
+            RoomSnapshot.fromBytes(app.getRoom(), bytes);
+        }
+
+        GameOutput out = app.getOutput();
+        out.flush();
+        OutputSink sink = out.getSink();
+        GameMetrics metrics = app.getMetrics();
+        Leaderboard leaderboard = app.getLeaderboard();
+        out.setSink(OutputSink.NULL);
+        app.setMetrics(new GameMetrics());
+        app.setLeaderboard(new Leaderboard(Leaderboard.DEFAULT_SIZE));
+        // the journal may not be attached to this app yet, but the events are needed
+        // to check the replay
+        boolean listening = this.app != app;
+        if (listening) {
+            app.getRoom().addListener(listener);
+        }
+        replaying = true;
+        try {
+            for (ByteBuffer turn : turns) {
+                byte[] bytes = new byte[turn.remaining()];
+                turn.get(bytes);
+                ByteArrayInputStream stream = new ByteArrayInputStream(bytes);
+                DataInputStream in = new DataInputStream(stream);
+                boolean handled = in.readBoolean();
+                String line = readString(in);
+                int recorded = in.readInt();
+                int start = bytes.length - stream.available();
+                events.reset();
+                eventCount = 0;
+                if (app.processLine(line) != handled) {
+                    throw new IllegalStateException("Replaying \"" + line + "\" from the journal was "
+                            + (handled ? "not handled" : "handled") + " but it was when it was recorded");
+                }
+                if (eventCount != recorded
+                        || !Arrays.equals(bytes, start, bytes.length, events.array(), 0, events.size())) {
+                    throw new IllegalStateException("Replaying \"" + line + "\" from the journal caused"
+                            + describeEvents(events.array(), 0, events.size(), eventCount) + " instead of"
+                            + describeEvents(bytes, start, bytes.length - start, recorded));
+                }
+            }
+            out.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            replaying = false;
+            events.reset();
+            eventCount = 0;
+            if (listening) {
+                app.getRoom().removeListener(listener);
+            }
+            out.setSink(sink);
+            app.setMetrics(metrics);
+            app.setLeaderboard(leaderboard);
+        }
+        return turns.size();
+    }
+
+    /**
+     * Starts recording the lines the app processes, starting the journal again
+     * with a snapshot of the app's room.
+     *
+     * A snapshot cannot capture a handler waiting for input, so if the app is in
+     * the middle of a question (for example because recover stopped right after
+     * "unlock purse"), the journal is kept as it is, since replaying it asks the
+     * question again, and the snapshot is taken after the question is answered.
+     *
+     * @param app the app to record
+     */
+    public void attach(EscapeApp app) {
+        this.app = app;
+        app.setJournal(this);
+        app.getRoom().addListener(listener);
+        if (app.isAwaitingInput()) {
+            checkpointPending = true;
+        } else {
+            checkpoint();
+        }
+    }
+
+    /**
+     * Remembers an event caused by the line being processed, or being replayed by
+     * recover.
+     */
+    private void onRoomEvent(RoomEvent event, Object subject) {
+        if (event == RoomEvent.TURN_CONSUMED) {
+            return;
+        }
+        String name = subject instanceof Item ? ((Item) subject).getName()
+                : subject instanceof Recipe ? ((Recipe) subject).getKey() : String.valueOf(subject);
+        try {
+            events.data.writeByte(event.ordinal());
+            writeString(events.data, name);
+            eventCount++;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Records a line the app processed, along with the events it caused. This is
+     * called by EscapeApp.processLine.
+     *
+     * @param line    the line
+     * @param handled whether the line was handled
+     */
+    void recordTurn(String line, boolean handled) {
+        if (replaying) {
+            return;
+        }
+        try {
+            // a snapshot cannot capture a handler waiting for input, so the journal is
+            // only started again between commands
+            if ((checkpointPending || buffer.position() > segmentSize / 2) && !app.isAwaitingInput()) {
+                checkpoint();
+                return;
+            }
+            record.reset();
+            record.data.writeByte(TURN);
+            record.data.writeBoolean(handled);
+            writeString(record.data, line);
+            record.data.writeInt(eventCount);
+            record.write(events.array(), 0, events.size());
+            append(record);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            events.reset();
+            eventCount = 0;
+        }
+    }
+
+    /**
+     * Starts the journal again with a snapshot of the attached app's room. The new
+     * journal is written to a temporary file, forced to disk and then moved over
+     * the old one, so a crash at any point leaves one complete journal.
+     */
+    public void checkpoint() {
+        checkpointPending = false;
+        // the snapshot already holds whatever changed since the last line
+        events.reset();
+        eventCount = 0;
+        try {
+            Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+            Files.deleteIfExists(temp);
+            close();
+            segmentSize = Math.max(segmentSize, buffer.capacity());
+            map(temp);
+            buffer.putInt(0, MAGIC);
+            buffer.putShort(4, VERSION);
+            buffer.position(HEADER_SIZE);
+            record.reset();
+            record.data.writeByte(SNAPSHOT);
+            record.data.write(RoomSnapshot.toBytes(app.getRoom()));
+            append(record);
+            force();
+            channel.close();
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            int position = buffer.position();
+            map(file);
+            buffer.position(position);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Writes a record at the end of the journal, mapping a larger file first if it
+     * does not fit, and forces the file to disk if a group of records is complete.
+     */
+    private void append(Record body) throws IOException {
+        int length = body.size();
+        int start = buffer.position();
+        if (start + RECORD_HEADER_SIZE + length + RECORD_HEADER_SIZE > buffer.capacity()) {
+            segmentSize = Math.max(segmentSize * 2, start + 2 * (RECORD_HEADER_SIZE + length));
+            channel.close();
+            map(mappedFile);
+            buffer.position(start);
+        }
+        crc.reset();
+        crc.update(body.array(), 0, length);
+        buffer.position(start + RECORD_HEADER_SIZE);
+        buffer.put(body.array(), 0, length);
+        // the end marker after the record, in case the file was reused
+        buffer.putInt(buffer.position(), 0);
+        buffer.putInt(start + 4, (int) crc.getValue());
+        // the length is written last, so a record is never seen half written
+        buffer.putInt(start, length);
+        if (++uncommitted >= groupCommit) {
+            force();
+        }
+    }
+
+    /**
+     * Forces everything written so far to disk.
+     */
+    public void force() {
+        buffer.force();
+        uncommitted = 0;
+    }
+
+    /**
+     * Returns the number of bytes of the journal in use.
+     *
+     * @return the number of bytes in use
+     */
+    public int size() {
+        return buffer.position();
+    }
+
+    /**
+     * Forces the journal to disk and closes the file.
+     */
+    @Override
+    public void close() throws IOException {
+        force();
+        channel.close();
+    }
+
+    /**
+     * Returns the events recorded with each line in the journal, for debugging:
+     * one string per record, in the form "[handled] line EVENT subject ...".
+     *
+     * @return a description of each line in the journal
+     */
+    public List<String> describe() {
+        int position = buffer.position();
+        buffer.position(HEADER_SIZE);
+        List<String> lines = new ArrayList<>();
+        try {
+            for (ByteBuffer body = nextRecord(); body != null; body = nextRecord()) {
+                byte[] bytes = new byte[body.remaining()];
+                body.get(bytes);
+                DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+                if (in.readByte() == SNAPSHOT) {
+                    lines.add("(snapshot of " + (bytes.length - 1) + " bytes)");
+                    continue;
+                }
+                StringBuilder line = new StringBuilder(in.readBoolean() ? "[handled] " : "[unhandled] ");
+                line.append(readString(in));
+                int count = in.readInt();
+                if (count > 0) {
+                    int start = bytes.length - in.available();
+                    line.append(describeEvents(bytes, start, bytes.length - start, count));
+                }
+                lines.add(line.toString());
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            buffer.position(position);
+        }
+        return lines;
+    }
+
+    /**
+     * Returns the encoded events as " EVENT subject EVENT subject ...", or " no
+     * events" if there are none.
+     */
+    private static String describeEvents(byte[] bytes, int offset, int length, int count) throws IOException {
+        if (count == 0) {
+            return " no events";
+        }
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes, offset, length));
+        StringBuilder description = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            description.append(' ').append(RoomEvent.values()[in.readByte()]).append(' ').append(readString(in));
+        }
+        return description.toString();
+    }
+
+    /**
+     * Writes the string as its length in bytes followed by its UTF-8 bytes. Unlike
+     * writeUTF, this works for strings of any length, so a very long line cannot
+     * fail to be recorded after it has already been run.
+     */
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Reads a string written by writeString.
+     */
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public String toString() {
+        return "TurnJournal " + file + " (" + size() + " bytes in use)";
+    }
+}
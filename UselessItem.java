@@ -5,9 +5,20 @@ public class UselessItem extends Item{
         super(name, description);
     }
 
+    /**
+     * Creates a useless item whose description is already in TextStore.shared()
+     * (see Item(String, int)).
+     * 
+     * @param name        the name of the item
+     * @param description the id of the description in TextStore.shared()
+     */
+    public UselessItem(String name, int description) {
+        super(name, description);
+    }
+
     @Override
     public void use() {
-        System.out.println("You cannot use the " + getName() + ".");
+        getOutput().println("You cannot use the " + getName() + ".");
     }
     
 }
@@ -1,3 +1,6 @@
+import java.io.IOException;
+import java.nio.file.Paths;
+
 /**
  * Author: Yashik Dhanaraj 
  * Period: 5
@@ -13,8 +16,8 @@
  * 
  */
 public class WizardLabDriver {
-    public static void main(String[] args) {
-        String intro = "Everyone does something illegal once in your lifetime. Sometimes more than once. \n" + 
+    /** the introduction describing the scenario */
+    public static final String INTRO = "Everyone does something illegal once in your lifetime. Sometimes more than once. \n" + 
         "And sometimes you get caught. You ended in prison... because you farted in near an officer's face. \n" + 
         "Because you are frustrated your prison, you start a prison riot and try to leave jail but then get \n" + 
         "caught by the same police that arrested you for farting in his presence. He tells you \"If really think \n" + 
@@ -23,8 +26,39 @@ public class WizardLabDriver {
         "you, I know Darwin is right. CLANG. The door shuts behind you. *insert evil laughter here* Don't worry \n" + 
         "I put common sense stuff for you. Good freaking luck. You will need it because you can't even pour the water out \n" + 
         "of boot if the instructions were on the heel. You've got one hour. Tick Tock\"";
-        WizardsLab lab = new WizardsLab("This is a Prisoner's Escape.", intro, 35);
-        new EscapeApp(lab).runGame();
+
+    /**
+     * Creates a new prisoner's escape room, ready for a new player.
+     * 
+     * @return a new prisoner's escape room
+     */
+    public static WizardsLab createLab() {
+        return new WizardsLab("This is a Prisoner's Escape.", INTRO, 35);
+    }
+
+    /**
+     * Plays the prisoner's escape, or the room defined in the file given as the
+     * first argument (see RoomTemplate).
+     *
+     * If the escape.journal system property is set, the game is recorded in that
+     * file (see TurnJournal), and a game left unfinished there, for example by a
+     * crash, is picked up where it left off.
+     */
+    public static void main(String[] args) throws IOException {
+        Room room = args.length > 0 ? RoomTemplate.load(Paths.get(args[0])).newRoom() : createLab();
+        EscapeApp app = new EscapeApp(room);
+        String journalFile = System.getProperty("escape.journal");
+        if (journalFile == null) {
+            app.runGame();
+            return;
+        }
+        try (TurnJournal journal = new TurnJournal(Paths.get(journalFile))) {
+            if (journal.recover(app) >= 0 && !room.escaped() && !room.failed()) {
+                app.getOutput().println("Welcome back! Your game has been restored.");
+            }
+            journal.attach(app);
+            app.runGame();
+        }
     }
 
 }
@@ -1,3 +1,6 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 
 public class WizardsLab extends Room {
     /** max number of turns the player can take before failing */
@@ -6,6 +9,12 @@ public class WizardsLab extends Room {
     /** the number of turns the player has taken */
     private int numTurns;
 
+    /** whether the escape item is in the room, kept up to date by onRoomEvent */
+    private boolean hasEscapeItem;
+
+    /** whether the player has run out of turns, kept up to date by onRoomEvent */
+    private boolean outOfTurns;
+
     /**
      * Creates a Wizardslab with the given description, intro, and maxTurns
      * 
@@ -15,6 +24,7 @@ public class WizardsLab extends Room {
      */
     public WizardsLab(String description, String intro, int maxTurns) {
         super(description, intro);
+        addListener(this::onRoomEvent);
         add(new PlatinumKeyRecipe());
         Container cookbook = new PasswordLockedContainer("cookbook",
                 "Gordon Ramsay's Cookbook. Cost: $35. It says that some controversy"
@@ -71,9 +81,31 @@ public class WizardsLab extends Room {
         this.maxTurns = maxTurns;
     }
 
+    /**
+     * returns the number of turns the player has taken.
+     * 
+     * @return the number of turns the player has taken
+     */
+    public int getNumTurns() {
+        return numTurns;
+    }
+
+    @Override
+    protected void writeState(DataOutput out) throws IOException {
+        out.writeInt(numTurns);
+        out.writeInt(maxTurns);
+    }
+
+    @Override
+    protected void readState(DataInput in) throws IOException {
+        numTurns = in.readInt();
+        maxTurns = in.readInt();
+        outOfTurns = numTurns >= maxTurns;
+    }
+
     @Override
     public void printRoomPrompt() {
-        System.out.println(
+        getOutput().println(
                 "You have taken " + numTurns + " turns. You have " + (maxTurns - numTurns) + " turns left to escape.");
     }
 
@@ -81,30 +113,58 @@ public class WizardsLab extends Room {
     public void onCommandAttempted(String command, boolean handled) {
         if (handled) {
             numTurns++;
+            publish(RoomEvent.TURN_CONSUMED, command);
+        }
+    }
+
+    /**
+     * Keeps the escape and fail conditions up to date as the room changes, so that
+     * escaped() and failed() do not have to look at the room.
+     * 
+     * @param event   what changed
+     * @param subject the item, recipe or command the event is about
+     */
+    private void onRoomEvent(RoomEvent event, Object subject) {
+        switch (event) {
+        case ITEM_ADDED:
+        case ITEM_REMOVED:
+            if (((Item) subject).getName().equals("platinum_key")) {
+                hasEscapeItem = getItem("platinum_key") != null;
+            }
+            break;
+        case TURN_CONSUMED:
+            outOfTurns = numTurns >= maxTurns;
+            break;
+        default:
+            break;
         }
     }
 
     @Override
     public boolean escaped() {
-        return getItem("platinum_key") != null;
+        return hasEscapeItem;
     }
 
     @Override
     public void onEscaped() {
-        System.out.println(
+        getMetrics().recordEscape(numTurns);
+        getLeaderboard().recordEscape(getName(), numTurns, getElapsedMillis());
+        getOutput().println(
                 "Using the platinum key, you open the prison door and escape to freedom! Congratulations, you have escaped in "
                         + numTurns + " turns!");
     }
 
     @Override
     public void onFailed() {
-        System.out.println("Oh no! You ran out of time and now you are in prison forever.");
-        System.out.println("Game Over");
+        getMetrics().recordFailure(numTurns);
+        getLeaderboard().recordFailure(getName(), numTurns);
+        getOutput().println("Oh no! You ran out of time and now you are in prison forever.");
+        getOutput().println("Game Over");
     }
 
     @Override
     public boolean failed() {
-        return numTurns >= maxTurns;
+        return outOfTurns;
     }
 
 }
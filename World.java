@@ -0,0 +1,383 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Scanner;
+import java.util.Set;
+import java.util.function.Supplier;
+
+/**
+ * A world of rooms connected by exits, which the player moves between with
+ * "go <exit>".
+ *
+ * Rooms are only created when the player first enters them, so a world with
+ * hundreds of rooms starts as quickly as a world with one. Only a limited number
+ * of rooms are kept in memory: when there are more, the rooms the player left
+ * the longest ago are saved as snapshots (see RoomSnapshot) and dropped, and
+ * restored from their snapshots when the player comes back. (The room the
+ * player just left is always kept until the next move, so with a limit of one
+ * room there can briefly be two.) Only the handlers of
+ * the room the player is in are registered with the app (see
+ * EscapeApp.setRoom), so the number of rooms does not slow down commands.
+ *
+ * The game ends when the room the player is in is escaped or failed.
+ *
+ * A world can be defined in a file (see load) with lines like these:
+ *
+ * <pre>
+ * # rooms are loaded from room definition files (see RoomTemplate), relative to
+ * # the world file, when they are first entered
+ * room hallway hallway.room
+ * room prison prisoners_escape.room
+ * # exits go one way: from, exit name, to (the rooms must already be listed)
+ * exit hallway north prison
+ * exit prison south hallway
+ * # the room the player starts in (the first room if this is left out)
+ * start hallway
+ * </pre>
+ */
+public class World implements CommandHandler {
+    /** creates each room, by name */
+    private Map<String, Supplier<? extends Room>> factories = new LinkedHashMap<>();
+
+    /** the exits out of each room, by room name and then exit name */
+    private Map<String, Map<String, String>> exits = new HashMap<>();
+
+    /** the rooms in memory by name, least recently entered first */
+    private LinkedHashMap<String, Room> loaded = new LinkedHashMap<>(16, 0.75f, true);
+
+    /** the snapshots of the rooms that were dropped from memory, by name */
+    private Map<String, byte[]> evicted = new HashMap<>();
+
+    /** the rooms the player has entered */
+    private Set<String> visited = new HashSet<>();
+
+    /** the most rooms kept in memory at once */
+    private int maxLoadedRooms;
+
+    /** the room the player starts in */
+    private String start;
+
+    /** the room the player is in */
+    private String current;
+
+    /** the app the player is playing in */
+    private EscapeApp app;
+
+    /** the number of times a room was created or restored */
+    private int loads;
+
+    /**
+     * Creates an empty world that keeps at most the given number of rooms in
+     * memory.
+     *
+     * @param maxLoadedRooms the most rooms kept in memory at once
+     */
+    public World(int maxLoadedRooms) {
+        if (maxLoadedRooms < 1) {
+            throw new IllegalArgumentException("A world must be able to keep at least one room in memory");
+        }
+        this.maxLoadedRooms = maxLoadedRooms;
+    }
+
+    /**
+     * Loads a world from a file. The room definition files it names are not read
+     * until the player enters the rooms.
+     *
+     * @param path           the world file
+     * @param maxLoadedRooms the most rooms kept in memory at once
+     * @return the world
+     * @throws IOException              if the file cannot be read
+     * @throws IllegalArgumentException if the file is not a valid world
+     */
+    public static World load(Path path, int maxLoadedRooms) throws IOException {
+        World world = new World(maxLoadedRooms);
+        Path dir = path.toAbsolutePath().getParent();
+        List<String> lines = Files.readAllLines(path);
+        for (int n = 1; n <= lines.size(); n++) {
+            String line = lines.get(n - 1).trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String[] words = line.split("\\s+");
+            try {
+                if (words[0].equals("room") && words.length == 3) {
+                    world.addRoom(words[1], dir.resolve(words[2]));
+                } else if (words[0].equals("exit") && words.length == 4) {
+                    world.connect(words[1], words[2], words[3]);
+                } else if (words[0].equals("start") && words.length == 2) {
+                    world.setStart(words[1]);
+                } else {
+                    throw new IllegalArgumentException("expected room, exit or start");
+                }
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Line " + n + " of the world definition: " + e.getMessage(), e);
+            }
+        }
+        return world;
+    }
+
+    /**
+     * Adds a room that is created by the given supplier when the player first
+     * enters it.
+     *
+     * @param name  the name of the room
+     * @param rooms creates the room
+     * @throws IllegalArgumentException if the world already has a room with the
+     *                                  name
+     */
+    public void addRoom(String name, Supplier<? extends Room> rooms) {
+        if (factories.putIfAbsent(name, rooms) != null) {
+            throw new IllegalArgumentException("The world already has a room named " + name);
+        }
+        if (start == null) {
+            start = name;
+        }
+    }
+
+    /**
+     * Adds a room that is created from the given room definition file (see
+     * RoomTemplate) when the player first enters it.
+     *
+     * @param name the name of the room
+     * @param file the room definition file
+     */
+    public void addRoom(String name, Path file) {
+        RoomTemplate[] template = new RoomTemplate[1];
+        addRoom(name, () -> {
+            if (template[0] == null) {
+                try {
+                    template[0] = RoomTemplate.load(file);
+                } catch (IOException e) {
+                    throw new IllegalStateException("Cannot load room " + name + " from " + file, e);
+                }
+            }
+            return template[0].newRoom();
+        });
+    }
+
+    /**
+     * Adds an exit from one room to another. Exits go one way; add another exit to
+     * come back.
+     *
+     * @param from the room the exit is in
+     * @param exit the name of the exit, which the player types after "go"
+     * @param to   the room the exit leads to
+     * @throws IllegalArgumentException if either room is not in the world
+     */
+    public void connect(String from, String exit, String to) {
+        if (!factories.containsKey(from) || !factories.containsKey(to)) {
+            String missing = factories.containsKey(from) ? to : from;
+            throw new IllegalArgumentException("There is no room named " + missing);
+        }
+        exits.computeIfAbsent(from, r -> new LinkedHashMap<>()).put(exit, to);
+    }
+
+    /**
+     * Sets the room the player starts in.
+     *
+     * @param name the name of the room
+     */
+    public void setStart(String name) {
+        if (!factories.containsKey(name)) {
+            throw new IllegalArgumentException("There is no room named " + name);
+        }
+        start = name;
+    }
+
+    /**
+     * Creates an app in the start room that reads from and prints to the given
+     * input and output, with this world handling "go" and "exits".
+     *
+     * @param in  the input to read commands from
+     * @param out the output to print to
+     * @return the app
+     */
+    public EscapeApp newApp(Scanner in, GameOutput out) {
+        if (start == null) {
+            throw new IllegalStateException("The world has no rooms");
+        }
+        Room room = room(start);
+        app = new EscapeApp(room, in, out);
+        app.addHandler(this);
+        current = start;
+        visited.add(start);
+        return app;
+    }
+
+    /**
+     * Moves the player to the named room, creating it or restoring it from its
+     * snapshot if it is not in memory, and drops rooms from memory if there are too
+     * many.
+     *
+     * @param name the name of the room
+     */
+    public void enter(String name) {
+        evictIdleRooms(name);
+        Room room = room(name);
+        app.setRoom(room);
+        current = name;
+        if (visited.add(name)) {
+            room.printIntro();
+        }
+        room.printDescription();
+        printExits();
+    }
+
+    /**
+     * Returns the named room, creating it or restoring it from its snapshot if it
+     * is not in memory.
+     */
+    private Room room(String name) {
+        Room room = loaded.get(name);
+        if (room == null) {
+            Supplier<? extends Room> rooms = factories.get(name);
+            if (rooms == null) {
+                throw new IllegalArgumentException("There is no room named " + name);
+            }
+            byte[] snapshot = evicted.remove(name);
+            room = snapshot == null ? rooms.get() : RoomSnapshot.fromBytes(rooms.get(), snapshot);
+            loaded.put(name, room);
+            loads++;
+        }
+        return room;
+    }
+
+    /**
+     * Saves and drops the rooms the player left the longest ago to make space for
+     * the room being entered. The room the player is leaving is kept, because the
+     * command that moved the player still counts as a turn there (see
+     * EscapeApp.processCommand); it can be dropped on the next move. Rooms that
+     * cannot be saved are kept too.
+     */
+    private void evictIdleRooms(String entering) {
+        Iterator<Map.Entry<String, Room>> it = loaded.entrySet().iterator();
+        while (loaded.size() >= maxLoadedRooms && it.hasNext()) {
+            Map.Entry<String, Room> entry = it.next();
+            if (entry.getKey().equals(current) || entry.getKey().equals(entering)) {
+                continue;
+            }
+            try {
+                evicted.put(entry.getKey(), RoomSnapshot.toBytes(entry.getValue()));
+                it.remove();
+            } catch (IllegalArgumentException e) {
+                // the room has items that cannot be saved, so it stays in memory
+            }
+        }
+    }
+
+    /**
+     * Prints the exits out of the room the player is in.
+     */
+    private void printExits() {
+        Map<String, String> out = exits.get(current);
+        if (out == null || out.isEmpty()) {
+            app.getOutput().println("There are no exits.");
+            return;
+        }
+        StringBuilder line = new StringBuilder("Exits:");
+        for (Map.Entry<String, String> exit : out.entrySet()) {
+            line.append(' ').append(exit.getKey()).append(" (").append(exit.getValue()).append(')');
+        }
+        app.getOutput().println(line.toString());
+    }
+
+    @Override
+    public boolean execute(String command) {
+        if (command.equals("exits")) {
+            printExits();
+            return true;
+        }
+        CommandTokenizer tokens = app.getTokenizer().reset(command);
+        if (!tokens.next() || !tokens.tokenEquals("go")) {
+            return false;
+        }
+        if (!tokens.hasNext()) {
+            app.getOutput().println("Go where?");
+            printExits();
+            return true;
+        }
+        String exit = tokens.rest();
+        Map<String, String> out = exits.get(current);
+        String to = out == null ? null : out.get(exit);
+        if (to == null) {
+            app.getOutput().println("You can't go " + exit + " from here.");
+        } else {
+            enter(to);
+        }
+        return true;
+    }
+
+    @Override
+    public void printHelp() {
+        app.getOutput().println("go <exit> moves to another room");
+        app.getOutput().println("exits lists the ways out of this room");
+    }
+
+    @Override
+    public String[] getRoutes() {
+        return new String[] { "go", "exits" };
+    }
+
+    /**
+     * Returns the name of the room the player is in.
+     *
+     * @return the name of the room the player is in
+     */
+    public String getCurrentRoomName() {
+        return current;
+    }
+
+    /**
+     * Returns the number of rooms in the world.
+     *
+     * @return the number of rooms in the world
+     */
+    public int getRoomCount() {
+        return factories.size();
+    }
+
+    /**
+     * Returns the number of rooms in memory.
+     *
+     * @return the number of rooms in memory
+     */
+    public int getLoadedRoomCount() {
+        return loaded.size();
+    }
+
+    /**
+     * Returns the number of rooms saved as snapshots and dropped from memory.
+     *
+     * @return the number of rooms dropped from memory
+     */
+    public int getEvictedRoomCount() {
+        return evicted.size();
+    }
+
+    /**
+     * Returns the number of times a room was created or restored from a snapshot.
+     *
+     * @return the number of times a room was created or restored
+     */
+    public int getLoadCount() {
+        return loads;
+    }
+
+    /**
+     * Plays a world.
+     *
+     * Usage: java World world-file [max-rooms-in-memory]
+     */
+    public static void main(String[] args) throws IOException {
+        int maxLoadedRooms = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+        World world = load(Paths.get(args[0]), maxLoadedRooms);
+        world.newApp(EscapeApp.IN, new GameOutput(OutputSink.console())).runGame();
+    }
+}